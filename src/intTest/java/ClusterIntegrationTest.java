@@ -0,0 +1,197 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a cluster of two Server processes on loopback, each in its own directory, and sends every code to
+ * the first one: codes of the upper half of the code space have to end up in the second node log.
+ * Nodes run in the ingestion mode of conmuncher.ingestion
+ */
+public class ClusterIntegrationTest {
+
+    private static final int NODES = 2;
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<Path> directories = new ArrayList<>();
+    private final int[] ports = new int[NODES];
+
+    @Before
+    public void up() throws IOException, InterruptedException {
+        final int[] peerPorts = new int[NODES];
+        final StringBuilder nodes = new StringBuilder();
+        for (int i = 0; i < NODES; i++) {
+            ports[i] = freePort();
+            peerPorts[i] = freePort();
+            nodes.append(i == 0 ? "" : ",").append("localhost:").append(peerPorts[i]);
+        }
+        for (int i = 0; i < NODES; i++) {
+            final Path directory = Files.createTempDirectory("conmuncher-node-" + i);
+            directories.add(directory);
+            processes.add(new ProcessBuilder(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("java.class.path"),
+                    "-Dconmuncher.port=" + ports[i],
+                    "-Dconmuncher.cluster.nodes=" + nodes,
+                    "-Dconmuncher.cluster.node=" + i,
+                    "-Dconmuncher.flush.millis=10",
+                    "-Dconmuncher.ingestion=" + System.getProperty("conmuncher.ingestion", "blocking"),
+                    "Server")
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(directory.resolve("server.out").toFile())
+                    .start());
+        }
+        for (int port : ports) {
+            awaitPort(port);
+        }
+    }
+
+    @After
+    public void teardown() throws IOException, InterruptedException {
+        for (int i = 0; i < NODES; i++) {
+            if (processes.get(i).isAlive()) {
+                send(ports[i], "terminate");
+            }
+        }
+        for (Process process : processes) {
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    @Test
+    public void shouldDedupEachCodeOnItsOwnerNode() throws IOException, InterruptedException {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            lines.append(String.format("%09d%n", i * 999_983 % 1_000_000_000));
+        }
+        lines.append(String.format("%09d%n%09d%n", 999_983, 999 * 999_983 % 1_000_000_000));
+        send(ports[0], lines.toString());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (loggedLines(0) + loggedLines(1) < 1000 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertThat(loggedLines(0) + loggedLines(1), equalTo(1000L));
+        assertTrue(Files.readAllLines(log(0)).stream().allMatch(code -> Integer.parseInt(code) < 500_000_000));
+        assertTrue(Files.readAllLines(log(1)).stream().allMatch(code -> Integer.parseInt(code) >= 500_000_000));
+        assertThat(awaitStats(ports[1], "Cluster unique total: 1000"), equalTo("Cluster unique total: 1000"));
+    }
+
+    /**
+     * the second node is killed while a client streams codes to the first one: the client is not disconnected,
+     * the first node keeps every code of its own range and goes on answering
+     */
+    @Test
+    public void shouldKeepServingClients_WhenPeerDiesMidStream() throws IOException, InterruptedException {
+        final int codes = 200_000;
+        long own = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), ports[0]);
+             OutputStream out = socket.getOutputStream()) {
+            final StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < codes; i++) {
+                final int code = (int) ((long) i * 999_983 % 1_000_000_000);
+                own += code < 500_000_000 ? 1 : 0;
+                lines.append(String.format("%09d%n", code));
+                if (i % 1000 == 999) {
+                    out.write(lines.toString().getBytes(StandardCharsets.US_ASCII));
+                    lines.setLength(0);
+                    TimeUnit.MILLISECONDS.sleep(1);
+                }
+                if (i == codes / 2) {
+                    processes.get(1).destroyForcibly().waitFor();
+                }
+            }
+            out.write(lines.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (loggedLines(0) < own && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertThat(loggedLines(0), equalTo(own));
+        assertTrue(Files.readAllLines(log(0)).stream().allMatch(code -> Integer.parseInt(code) < 500_000_000));
+        assertTrue(stats(ports[0]).startsWith("Cluster unique total: "));
+    }
+
+    private Path log(final int node) {
+        return directories.get(node).resolve(Repository.NUMBERS_LOG);
+    }
+
+    private long loggedLines(final int node) throws IOException {
+        return Files.size(log(node)) / (9 + System.lineSeparator().length());
+    }
+
+    private static void send(final int port, final String lines) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             OutputStream out = socket.getOutputStream()) {
+            out.write((lines.endsWith(System.lineSeparator()) ? lines : lines + System.lineSeparator())
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * @return cluster line of the stats reply once it is the expected one, peer totals are refreshed in the background
+     */
+    private static String awaitStats(final int port, final String expected) throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String line = stats(port);
+        while (!expected.equals(line) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+            line = stats(port);
+        }
+        return line;
+    }
+
+    /**
+     * @return cluster line of the stats reply
+     */
+    private static String stats(final int port) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))) {
+            socket.getOutputStream().write(("stats" + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII));
+            reader.readLine();
+            return reader.readLine();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitPort(final int port) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket(InetAddress.getLoopbackAddress(), port).close();
+                return;
+            } catch (IOException e) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+        throw new IllegalStateException("server did not listen on port " + port);
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reproducible load against a Server running on this host. Every connection sends codes drawn from its own
+ * seeded Random, a share of them repeating codes it sent before. Closed loop sends as fast as the server reads;
+ * open loop sends at a fixed rate and measures how late codes leave, so backpressure shows up as latency.
+ * When sending is done it waits for numbers.log to hold every expected unique code and checks its content.
+ * Against a cluster, connections are spread over the nodes client ports and the logs of every node are checked
+ * together, each code has to be in one of them exactly once.
+ * <p>
+ * Options: --host=localhost --port=4000 (or --ports=4000,4001 for a cluster) --connections=5 --codes=100000 (per connection) --duplicates=0.1
+ * --seed=42 --mode=closed|open --rate=50000 (codes per second per connection, open loop)
+ * --log=numbers.log (comma separated, one per node) --drainSeconds=60 --terminate
+ */
+public class LoadGenerator {
+
+    private static final int CHUNK_CODES = 1024;
+    private static final int RECORD_LENGTH = 9 + System.lineSeparator().length();
+
+    private final String host;
+    private final int[] ports;
+    private final int connections;
+    private final int codesPerConnection;
+    private final double duplicates;
+    private final long seed;
+    private final boolean openLoop;
+    private final int rate;
+    private final List<Path> logs = new ArrayList<>();
+    private final long drainSeconds;
+    private final boolean terminate;
+
+    private LoadGenerator(final Map<String, String> options) {
+        this.host = options.getOrDefault("host", "localhost");
+        this.ports = Arrays.stream(options.getOrDefault("ports", options.getOrDefault("port", "4000")).split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "5"));
+        this.codesPerConnection = Integer.parseInt(options.getOrDefault("codes", "100000"));
+        this.duplicates = Double.parseDouble(options.getOrDefault("duplicates", "0.1"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.openLoop = "open".equals(options.getOrDefault("mode", "closed"));
+        this.rate = Integer.parseInt(options.getOrDefault("rate", "50000"));
+        for (String log : options.getOrDefault("log", Repository.NUMBERS_LOG).split(",")) {
+            logs.add(Paths.get(log));
+        }
+        this.drainSeconds = Long.parseLong(options.getOrDefault("drainSeconds", "60"));
+        this.terminate = options.containsKey("terminate");
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        System.exit(new LoadGenerator(options).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        final List<Socket> accepted = new ArrayList<>();
+        int rejected = 0;
+        for (int i = 0; i < connections; i++) {
+            final Socket socket = new Socket(host, ports[i % ports.length]);
+            if (isClosedByServer(socket)) {
+                socket.close();
+                rejected++;
+            } else {
+                accepted.add(socket);
+            }
+        }
+        System.out.printf("connections: %d accepted, %d rejected%n", accepted.size(), rejected);
+
+        final ExecutorService senderExecutor = Executors.newFixedThreadPool(Math.max(1, accepted.size()));
+        final long start = System.nanoTime();
+        final List<CompletableFuture<Sender>> senders = new ArrayList<>();
+        for (int i = 0; i < accepted.size(); i++) {
+            final Sender sender = new Sender(accepted.get(i), new Random(seed + i));
+            senders.add(CompletableFuture.supplyAsync(sender::send, senderExecutor));
+        }
+        final List<Sender> done = new ArrayList<>();
+        for (CompletableFuture<Sender> sender : senders) {
+            done.add(sender.join());
+        }
+        final long sendNanos = System.nanoTime() - start;
+        senderExecutor.shutdown();
+
+        final CodeBitmap expected = new CodeBitmap();
+        long sent = 0;
+        long[] latencies = new long[0];
+        for (Sender sender : done) {
+            sent += sender.sent;
+            for (int i = 0; i < sender.sent; i++) {
+                expected.add(sender.codes[i]);
+            }
+            final long[] merged = Arrays.copyOf(latencies, latencies.length + sender.latencyCount);
+            System.arraycopy(sender.latencies, 0, merged, latencies.length, sender.latencyCount);
+            latencies = merged;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("sent %d codes (%d unique) in %.2f s: %.0f codes/s%n",
+                sent, expected.size(), sendNanos / 1e9, sent / (sendNanos / 1e9));
+        System.out.printf("%s latency per %d codes: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                openLoop ? "open loop send lag" : "closed loop write", CHUNK_CODES,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 1.0));
+
+        final long drainStart = System.nanoTime();
+        final boolean drained = awaitLogSize(expected.size() * RECORD_LENGTH);
+        System.out.printf("%s in %.2f s%n", drained ? "drained" : "not drained",
+                (System.nanoTime() - drainStart) / 1e9);
+
+        final boolean valid = verifyLog(expected);
+        if (terminate) {
+            for (int port : ports) {
+                try (Socket socket = new Socket(host, port); OutputStream out = socket.getOutputStream()) {
+                    out.write(("terminate" + System.lineSeparator()).getBytes());
+                }
+            }
+        }
+        return drained && valid;
+    }
+
+    /**
+     * a server over its connection limit either closes the socket or does not read from it yet,
+     * only the first case is a rejection
+     */
+    private boolean isClosedByServer(final Socket socket) throws IOException {
+        socket.setSoTimeout(200);
+        try {
+            return socket.getInputStream().read() < 0;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    private boolean awaitLogSize(final long expectedBytes) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+        while (System.nanoTime() < deadline) {
+            long logged = 0;
+            for (Path log : logs) {
+                logged += log.toFile().length();
+            }
+            if (logged >= expectedBytes) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return false;
+    }
+
+    private boolean verifyLog(final CodeBitmap expected) throws IOException {
+        final CodeBitmap logged = new CodeBitmap();
+        long lines = 0;
+        long unexpected = 0;
+        long duplicated = 0;
+        for (Path log : logs) {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(RECORD_LENGTH * 4096);
+                int read;
+                do {
+                    read = channel.read(buffer);
+                    buffer.flip();
+                    while (buffer.remaining() >= RECORD_LENGTH) {
+                        int code = 0;
+                        for (int i = 0; i < 9; i++) {
+                            code = code * 10 + (buffer.get() - '0');
+                        }
+                        buffer.position(buffer.position() + RECORD_LENGTH - 9);
+                        lines++;
+                        if (!expected.contains(code)) {
+                            unexpected++;
+                        } else if (!logged.add(code)) {
+                            duplicated++;
+                        }
+                    }
+                    buffer.compact();
+                } while (read >= 0);
+            }
+        }
+        final long missing = expected.size() - logged.size();
+        final boolean valid = missing == 0 && unexpected == 0 && duplicated == 0;
+        System.out.printf("%s: %d lines, %d expected, %d missing, %d unexpected, %d duplicated -> %s%n",
+                logs, lines, expected.size(), missing, unexpected, duplicated, valid ? "OK" : "FAILED");
+        return valid;
+    }
+
+    private static double percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private final class Sender {
+
+        private final Socket socket;
+        private final Random random;
+        private final int[] codes = new int[codesPerConnection];
+        private final long[] latencies = new long[codesPerConnection / CHUNK_CODES + 1];
+        private final byte[] chunk = new byte[CHUNK_CODES * RECORD_LENGTH];
+        private final byte[] newline = System.lineSeparator().getBytes();
+        private int sent;
+        private int latencyCount;
+
+        private Sender(final Socket socket, final Random random) {
+            this.socket = socket;
+            this.random = random;
+        }
+
+        private Sender send() {
+            try (OutputStream out = socket.getOutputStream()) {
+                final long start = System.nanoTime();
+                final double nanosPerCode = 1e9 / rate;
+                while (sent < codesPerConnection) {
+                    final int count = Math.min(CHUNK_CODES, codesPerConnection - sent);
+                    final long due = start + (long) (sent * nanosPerCode);
+                    if (openLoop) {
+                        final long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    final long writeStart = System.nanoTime();
+                    out.write(chunk, 0, fill(count));
+                    sent += count;
+                    latencies[latencyCount++] = System.nanoTime() - (openLoop ? due : writeStart);
+                }
+            } catch (IOException e) {
+                System.out.printf("connection closed by server after %d codes: %s%n", sent, e.getMessage());
+            }
+            return this;
+        }
+
+        private int fill(final int count) {
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                final int index = sent + i;
+                final int code = index > 0 && random.nextDouble() < duplicates
+                        ? codes[random.nextInt(index)]
+                        : random.nextInt(CodeBitmap.CODE_SPACE);
+                codes[index] = code;
+                int remaining = code;
+                for (int digit = offset + 8; digit >= offset; digit--) {
+                    chunk[digit] = (byte) ('0' + remaining % 10);
+                    remaining /= 10;
+                }
+                System.arraycopy(newline, 0, chunk, offset + 9, newline.length);
+                offset += RECORD_LENGTH;
+            }
+            return offset;
+        }
+    }
+}
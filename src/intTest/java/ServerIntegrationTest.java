@@ -1,6 +1,5 @@
 import org.junit.After;
 import org.junit.Before;
-import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
@@ -15,6 +14,9 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
@@ -27,47 +29,55 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 /**
- * This integration test class should be executed in totality,
- * <p>
- * individual tests are expected to fail because of reporting assertions
+ * Every test runs an embedded server of its own on an ephemeral port, with the numbers log in a temporary directory.
+ * The ingestion mode comes from conmuncher.ingestion, gradle integrationTest -Pingestion=nio runs them in nio mode
  */
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class ServerIntegrationTest {
 
-    @BeforeClass
-    public static void waitForOperations() throws InterruptedException {
-        Server.terminate();
-        TimeUnit.SECONDS.sleep(15);
-    }
+    private Path directory;
+    private ServerConfig config;
+    private Server server;
 
     @Before
-    public void up() throws InterruptedException {
-        Repository.cleanUp();
-        runAsync(Server::getInstance);
-        TimeUnit.MILLISECONDS.sleep(300);
+    public void up() throws IOException {
+        directory = Files.createTempDirectory("conmuncher");
+        config = ServerConfig.builder().port(0).directory(directory).reportSeconds(0).build();
+        server = new Server(config).start();
     }
 
     @After
-    public void teardown() {
-        Server.terminate();
+    public void teardown() throws IOException {
+        server.stop();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
     }
 
+    /**
+     * a sixth client waits for a free connection thread or permit, in nio mode it is closed straight away
+     */
     @Test
     public void should1AcceptMaxOf5ConcurrentConnctions() throws IOException, InterruptedException {
-        sendMessagesRandomMessages(new Socket(localAddress(), 4000), 1, 3);
-        sendMessagesRandomMessages(new Socket(localAddress(), 4000), 1, 3);
-        sendMessagesRandomMessages(new Socket(localAddress(), 4000), 1, 2);
-        sendMessagesRandomMessages(new Socket(localAddress(), 4000), 1, 2);
-        sendMessagesRandomMessages(new Socket(localAddress(), 4000), 1, 1);
-        sendMessagesRandomMessages(new Socket(localAddress(), 4000), 1, 0);
+        sendMessagesRandomMessages(new Socket(localAddress(), server.port()), 1, 3);
+        sendMessagesRandomMessages(new Socket(localAddress(), server.port()), 1, 3);
+        sendMessagesRandomMessages(new Socket(localAddress(), server.port()), 1, 2);
+        sendMessagesRandomMessages(new Socket(localAddress(), server.port()), 1, 2);
+        sendMessagesRandomMessages(new Socket(localAddress(), server.port()), 1, 1);
+        sendMessagesRandomMessages(new Socket(localAddress(), server.port()), 1, 0);
 
         TimeUnit.SECONDS.sleep(1);
 
-        try (final BufferedReader reader = new BufferedReader(new FileReader(Repository.NUMBERS_LOG))) {
+        try (final BufferedReader reader = new BufferedReader(new FileReader(directory.resolve(Repository.NUMBERS_LOG).toFile()))) {
             assertThat(reader.lines().count(), equalTo(5L));
         }
 
-        assertReport(6, 0, 6);
+        TimeUnit.SECONDS.sleep(1);
+        final int served = config.ingestionMode() == IngestionMode.NIO ? 5 : 6;
+        assertReport(served, 0, served);
 
     }
 
@@ -89,7 +99,7 @@ public class ServerIntegrationTest {
         String randomCode6 = randomCode();
 
         try (final PrintWriter printWriter = new PrintWriter(
-                new Socket(localAddress(), 4000).getOutputStream(),
+                new Socket(localAddress(), server.port()).getOutputStream(),
                 true)) {
 
             printWriter.println(randomCode1 + System.lineSeparator() + randomCode2 + System.lineSeparator() + randomCode3);
@@ -98,7 +108,7 @@ public class ServerIntegrationTest {
         }
         TimeUnit.SECONDS.sleep(2);
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(Repository.NUMBERS_LOG))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(directory.resolve(Repository.NUMBERS_LOG).toFile()))) {
             List<String> lines = reader.lines().collect(toList());
             assertThat(lines.size(), equalTo(6));
             assertTrue(lines.stream().anyMatch(line -> line.equals(randomCode1)));
@@ -109,7 +119,7 @@ public class ServerIntegrationTest {
             assertTrue(lines.stream().anyMatch(line -> line.equals(randomCode6)));
         }
 
-        assertReport(6, 0, 12);
+        assertReport(6, 0, 6);
 
     }
 
@@ -117,21 +127,21 @@ public class ServerIntegrationTest {
     public void should3AcceptExactlyNineDecimalsOrTermination_WhenInvalid10Digits_ThenEndConnection() throws IOException, InterruptedException {
         assertThatConnectionIsTerminatedAfterCode("1234567890");
         //2 valid codes are sent before invalid
-        assertReport(2, 0, 14);
+        assertReport(2, 0, 2);
     }
 
     @Test
     public void should4AcceptExactlyNineDecimalsOrTermination_WhenInvalid8Digits_ThenEndConnection() throws IOException, InterruptedException {
         assertThatConnectionIsTerminatedAfterCode("12345678");
         //2 valid codes are sent before invalid
-        assertReport(2, 0, 16);
+        assertReport(2, 0, 2);
     }
 
     @Test
     public void should5AcceptExactlyNineDecimalsOrTermination_WhenInvalidChars_ThenEndConnection() throws IOException, InterruptedException {
         assertThatConnectionIsTerminatedAfterCode("123DF6789");
         //2 valid codes are sent before invalid
-        assertReport(2, 0, 18);
+        assertReport(2, 0, 2);
     }
 
 
@@ -156,7 +166,7 @@ public class ServerIntegrationTest {
         final String randomCode4 = randomCode();
 
         try (PrintWriter printWriter = new PrintWriter(
-                new Socket(localAddress(), 4000).getOutputStream(),
+                new Socket(localAddress(), server.port()).getOutputStream(),
                 true)) {
 
             printWriter.println(randomCode1 + System.lineSeparator() + repeatedCode + System.lineSeparator() + randomCode3);
@@ -166,7 +176,7 @@ public class ServerIntegrationTest {
 
         TimeUnit.SECONDS.sleep(1);
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(Repository.NUMBERS_LOG))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(directory.resolve(Repository.NUMBERS_LOG).toFile()))) {
             List<String> lines = reader.lines().collect(toList());
             assertThat(lines.size(), equalTo(4));
             assertTrue(lines.stream().anyMatch(line -> line.equals(randomCode1)));
@@ -175,7 +185,7 @@ public class ServerIntegrationTest {
             assertTrue(lines.stream().anyMatch(line -> line.equals(randomCode4)));
         }
 
-        assertReport(4, 2, 22);
+        assertReport(4, 2, 4);
 
     }
 
@@ -187,11 +197,11 @@ public class ServerIntegrationTest {
      */
     @Test(expected = java.net.SocketException.class)
     public void should7TerminateAndStopReceivingConnections() throws IOException, InterruptedException {
-        try (Socket socket = new Socket(localAddress(), 4000)) {
+        try (Socket socket = new Socket(localAddress(), server.port())) {
             try (PrintWriter printWriter = new PrintWriter(socket.getOutputStream(), true)) {
                 printWriter.println("terminate" + System.lineSeparator());
             }
-            socket.connect(new InetSocketAddress(localAddress(), 4000), 1000);
+            socket.connect(new InetSocketAddress(localAddress(), server.port()), 1000);
         }
     }
 
@@ -208,7 +218,7 @@ public class ServerIntegrationTest {
     }
 
     private void assertThatConnectionIsTerminatedAfterCode(final String invalidCode) throws IOException, InterruptedException {
-        try (PrintWriter printWriter = new PrintWriter(new Socket(localAddress(), 4000).getOutputStream(), true)) {
+        try (PrintWriter printWriter = new PrintWriter(new Socket(localAddress(), server.port()).getOutputStream(), true)) {
             String validCode = randomCode();
             printWriter.println(validCode);
             String lastValidCode = randomCode();
@@ -218,7 +228,7 @@ public class ServerIntegrationTest {
 
             TimeUnit.SECONDS.sleep(1);
 
-            try (BufferedReader reader = new BufferedReader(new FileReader(Repository.NUMBERS_LOG))) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(directory.resolve(Repository.NUMBERS_LOG).toFile()))) {
                 List<String> lines = reader.lines().collect(toList());
                 assertThat(lines.size(), equalTo(2));
                 assertTrue(lines.stream().anyMatch(line -> line.equals(validCode)));
@@ -242,12 +252,18 @@ public class ServerIntegrationTest {
         });
     }
 
-    private void assertReport(final int uniques, final int duplicated, final int total) throws IOException, InterruptedException {
+    /**
+     * prints the report the server would print on schedule
+     */
+    private void assertReport(final int uniques, final int duplicated, final int total) throws IOException {
+        final PrintStream out = System.out;
         try (final ByteArrayOutputStream outContent = new ByteArrayOutputStream()) {
             System.setOut(new PrintStream(outContent));
-            TimeUnit.SECONDS.sleep(9);
+            server.monitor().printReport();
             assertThat(outContent.toString(),
                     equalTo("Received " + uniques + " unique numbers, " + duplicated + " duplicates. Unique total: " + total + System.lineSeparator()));
+        } finally {
+            System.setOut(out);
         }
     }
 
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Hot paths of the application exposed as JDK functional interfaces. JMH only accepts benchmarks in a named
+ * package and those cannot reference default package classes, so benchmarks look these factories up by name
+ */
+public final class Workloads {
+
+    public static final int BATCH_SIZE = Server.BATCH_SIZE;
+
+    private Workloads() {
+    }
+
+    /**
+     * @return Repository.isRequestInvalid on a list of codes
+     */
+    public static Predicate<List<String>> requestValidation(final List<AutoCloseable> resources) {
+        return Repository::isRequestInvalid;
+    }
+
+    /**
+     * @return parses a buffer of lines from its position, returns number of codes parsed
+     */
+    public static ToIntFunction<ByteBuffer> codeParser(final List<AutoCloseable> resources) {
+        final CodeParser parser = new CodeParser(BATCH_SIZE);
+        return buffer -> {
+            int codes = 0;
+            while (parser.parse(buffer) == CodeParser.Result.BATCH_FULL) {
+                codes += parser.batch().size();
+                parser.batch().clear();
+            }
+            codes += parser.batch().size();
+            parser.batch().clear();
+            return codes;
+        };
+    }
+
+    /**
+     * @return Monitor.add
+     */
+    public static IntPredicate monitorAdd(final List<AutoCloseable> resources) {
+        final Monitor monitor = new Monitor();
+        resources.add(monitor::shutdown);
+        return monitor::add;
+    }
+
+    /**
+     * @return Repository.save of a batch of BATCH_SIZE codes following the code passed
+     */
+    public static IntConsumer repositorySave(final List<AutoCloseable> resources) {
+        final Repository repository = repository(resources);
+        final IntBatch batch = new IntBatch(BATCH_SIZE);
+        return first -> {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add(nextCode(first, i));
+            }
+            repository.save(batch);
+            batch.clear();
+        };
+    }
+
+    /**
+     * @return line to log path: BATCH_SIZE lines following the code passed are rendered as client bytes,
+     * parsed and saved to numbers.log
+     */
+    public static IntConsumer lineToLog(final List<AutoCloseable> resources) {
+        final Repository repository = repository(resources);
+        final CodeParser parser = new CodeParser(BATCH_SIZE);
+        final byte[] lines = new byte[BATCH_SIZE * CodeParser.RECORD_LENGTH];
+        final ByteBuffer buffer = ByteBuffer.wrap(lines);
+        return first -> {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                CodeParser.format(nextCode(first, i), lines, i * CodeParser.RECORD_LENGTH);
+            }
+            buffer.clear();
+            while (parser.parse(buffer) != CodeParser.Result.DRAINED || !parser.batch().isEmpty()) {
+                repository.save(parser.batch());
+                parser.batch().clear();
+            }
+        };
+    }
+
+    /**
+     * @return line to log path of duplicate heavy traffic: BATCH_SIZE lines repeating each of the codes following
+     * the code passed ten times are parsed, checked by the front filter configured by conmuncher.prefilter.slots
+     * when it is enabled and saved to numbers.log
+     */
+    public static IntConsumer duplicateHeavyLineToLog(final List<AutoCloseable> resources) {
+        final Monitor monitor = new Monitor();
+        final Repository repository = new Repository(monitor);
+        resources.add(repository::shutdown);
+        resources.add(monitor::shutdown);
+        final RecentCodes recentCodes = RecentCodes.create(RecentCodes.SLOTS);
+        final CodeParser parser = new CodeParser(BATCH_SIZE);
+        final byte[] lines = new byte[BATCH_SIZE * CodeParser.RECORD_LENGTH];
+        final ByteBuffer buffer = ByteBuffer.wrap(lines);
+        return first -> {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                CodeParser.format(nextCode(first, i / 10), lines, i * CodeParser.RECORD_LENGTH);
+            }
+            buffer.clear();
+            while (parser.parse(buffer) != CodeParser.Result.DRAINED || !parser.batch().isEmpty()) {
+                if (recentCodes != null) {
+                    recentCodes.filter(parser.batch(), monitor);
+                }
+                repository.save(parser.batch());
+                parser.batch().clear();
+            }
+        };
+    }
+
+    /**
+     * @return dedup of a batch of BATCH_SIZE codes following the code passed, received by the first node of an
+     * in process cluster of conmuncher.benchmark.nodes nodes: codes of other nodes are forwarded over loopback
+     * and counted by their own Monitor, a single node counts them all itself
+     */
+    public static IntConsumer clusterDedup(final List<AutoCloseable> resources) throws IOException {
+        final int nodes = Integer.getInteger("conmuncher.benchmark.nodes", 1);
+        final List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()));
+            }
+        }
+        final List<Cluster> cluster = new ArrayList<>();
+        final List<Consumer<IntBatch>> dedup = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            final Monitor monitor = new Monitor();
+            resources.add(monitor::shutdown);
+            final Consumer<IntBatch> sink = batch -> {
+                for (int code = 0; code < batch.size(); code++) {
+                    monitor.add(batch.get(code));
+                }
+            };
+            dedup.add(sink);
+            if (nodes > 1) {
+                final Cluster node = new Cluster(addresses, i, BATCH_SIZE, sink, monitor);
+                resources.add(0, node::close);
+                cluster.add(node);
+            }
+        }
+        final IntBatch batch = new IntBatch(BATCH_SIZE);
+        return first -> {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add(nextCode(first, i));
+            }
+            if (!cluster.isEmpty()) {
+                cluster.get(0).route(batch);
+            }
+            dedup.get(0).accept(batch);
+            batch.clear();
+        };
+    }
+
+    /**
+     * walks the whole code space without repeating a code, the stride is coprime with 10^9
+     */
+    public static int nextCode(final int code, final int steps) {
+        return (int) ((code + 999_999_937L * steps) % CodeBitmap.CODE_SPACE);
+    }
+
+    private static Repository repository(final List<AutoCloseable> resources) {
+        final Monitor monitor = new Monitor();
+        final Repository repository = new Repository(monitor);
+        resources.add(repository::shutdown);
+        resources.add(monitor::shutdown);
+        return repository;
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Dedup of codes received by one node of a cluster of 1, 2 and 4 nodes running in this process: with more
+ * nodes the receiving node counts a smaller share itself and forwards the rest over loopback, so the score
+ * against 1 node is the forwarding overhead. Scores are codes per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterBenchmark {
+
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({"1", "2", "4"})
+    public String nodes;
+
+    private final Workload workload = new Workload();
+    private IntConsumer dedup;
+    private int nextCode;
+
+    @Setup
+    public void setUp() {
+        if (Workload.batchSize() != BATCH_SIZE) {
+            throw new IllegalStateException("batch size changed, update OperationsPerInvocation");
+        }
+        System.setProperty("conmuncher.benchmark.nodes", nodes);
+        dedup = workload.get("clusterDedup");
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void receivingNode() {
+        dedup.accept(nextCode);
+        nextCode = (int) ((nextCode + 999_999_937L * BATCH_SIZE) % 1_000_000_000);
+    }
+}
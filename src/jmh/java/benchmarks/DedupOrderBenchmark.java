@@ -0,0 +1,59 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Repository.save with 4 dedup threads, writing codes as soon as they are counted and in staging buffer order.
+ * Every mode runs in its own fork, Repository reads it once when its class is loaded. Scores are codes per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DedupOrderBenchmark {
+
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({"false", "true"})
+    public String ordered;
+
+    private final Workload workload = new Workload();
+    private IntConsumer save;
+    private int nextCode;
+
+    @Setup
+    public void setUp() {
+        if (Workload.batchSize() != BATCH_SIZE) {
+            throw new IllegalStateException("batch size changed, update OperationsPerInvocation");
+        }
+        System.setProperty("conmuncher.dedup.threads", "4");
+        System.setProperty("conmuncher.dedup.ordered", ordered);
+        save = workload.get("repositorySave");
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void repositorySave() {
+        save.accept(nextCode);
+        nextCode = (int) ((nextCode + 999_999_937L * BATCH_SIZE) % 1_000_000_000);
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Monitor.add shared by 1, 4 and 8 threads adding random codes, scores are codes per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MonitorBenchmark {
+
+    private final Workload workload = new Workload();
+    private IntPredicate monitorAdd;
+
+    @Setup
+    public void setUp() {
+        monitorAdd = workload.get("monitorAdd");
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean add1Thread() {
+        return monitorAdd.test(ThreadLocalRandom.current().nextInt(1000000000));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean add4Threads() {
+        return monitorAdd.test(ThreadLocalRandom.current().nextInt(1000000000));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean add8Threads() {
+        return monitorAdd.test(ThreadLocalRandom.current().nextInt(1000000000));
+    }
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Validation of received lines: regex based Repository.isRequestInvalid against the byte level CodeParser,
+ * scores are codes per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private static final int LINES = 1024;
+
+    private final Workload workload = new Workload();
+    private Predicate<List<String>> requestValidation;
+    private ToIntFunction<ByteBuffer> codeParser;
+    private List<String> codes;
+    private ByteBuffer lines;
+
+    @Setup
+    public void setUp() {
+        requestValidation = workload.get("requestValidation");
+        codeParser = workload.get("codeParser");
+        final Random random = new Random(42);
+        codes = IntStream.range(0, LINES)
+                .mapToObj(i -> String.format("%09d", random.nextInt(1000000000)))
+                .collect(Collectors.toList());
+        lines = ByteBuffer.wrap(codes.stream().collect(Collectors.joining("\n", "", "\n"))
+                .getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public boolean isRequestInvalid() {
+        return requestValidation.test(codes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int codeParser() {
+        lines.clear();
+        return codeParser.applyAsInt(lines);
+    }
+}
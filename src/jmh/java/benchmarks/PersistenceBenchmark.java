@@ -0,0 +1,85 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Sustained persistence of unique codes into numbers.log, Repository.save alone and the whole path from
+ * client bytes to the log. Each trial starts from an empty log, scores are codes per second.
+ * Every durability mode runs in its own fork, Repository reads it once when its class is loaded
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private static final int BATCH_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Target {
+
+        @Param({"NONE", "PERIODIC", "GROUP_COMMIT"})
+        public String durability;
+
+        private final Workload workload = new Workload();
+        private IntConsumer save;
+        private int nextCode;
+
+        void open(final String factory) {
+            if (Workload.batchSize() != BATCH_SIZE) {
+                throw new IllegalStateException("batch size changed, update OperationsPerInvocation");
+            }
+            System.setProperty("conmuncher.durability", durability);
+            save = workload.get(factory);
+        }
+
+        void saveNextBatch() {
+            save.accept(nextCode);
+            nextCode = (int) ((nextCode + 999_999_937L * BATCH_SIZE) % 1_000_000_000);
+        }
+
+        @TearDown
+        public void tearDown() {
+            workload.close();
+        }
+    }
+
+    public static class RepositorySave extends Target {
+        @Setup
+        public void setUp() {
+            open("repositorySave");
+        }
+    }
+
+    public static class LineToLog extends Target {
+        @Setup
+        public void setUp() {
+            open("lineToLog");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void repositorySave(final RepositorySave target) {
+        target.saveNextBatch();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void lineToLog(final LineToLog target) {
+        target.saveNextBatch();
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looks up hot paths exposed by the default package Workloads class and closes what they opened
+ */
+final class Workload implements AutoCloseable {
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    <T> T get(final String factory) {
+        try {
+            return (T) Class.forName("Workloads").getMethod(factory, List.class).invoke(null, resources);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int batchSize() {
+        try {
+            return Class.forName("Workloads").getField("BATCH_SIZE").getInt(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * closes every resource, an interrupt while closing one is kept for the caller
+     */
+    @Override
+    public void close() {
+        try {
+            for (AutoCloseable resource : resources) {
+                resource.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            resources.clear();
+        }
+    }
+}
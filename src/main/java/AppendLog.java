@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Staged persistence pipeline. Batches of codes wait on a bounded staging buffer, the {@link DedupStage}
+ * threads count them with Monitor and hand unique codes through lock-free rings to one dedicated writer thread,
+ * which gathers them into a direct buffer. The ordered dedup stage keeps codes in staging buffer order,
+ * the default one writes them as soon as they are counted. The buffer is written to the log store, kept open for the whole run,
+ * when it fills up or when the flush interval elapses.
+ * Written codes are forced to disk as the {@link Durability} policy says: never, periodically, or as a group
+ * commit whenever the pipeline is drained, so batches arriving together share one force.
+ * Snapshots of Monitor codes are captured by the writer with the dedup stage paused and drained right after
+ * a flush, so Monitor holds exactly the codes in the log up to the snapshot offset
+ */
+final class AppendLog {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long ABORT_JOIN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final StagingBuffer stagingBuffer;
+    private final DedupStage dedupStage;
+    private final IntBatchPool pool;
+    private final LogStore store;
+    private final LogFormat format;
+    private final ByteBuffer buffer;
+    private final long flushIntervalNanos;
+    private final Durability durability;
+    private final long forceIntervalNanos;
+    private final Monitor monitor;
+    private final SnapshotStore snapshots;
+    private final long snapshotIntervalNanos;
+    private final Thread writer;
+    private final StripedCounter stagedCodes = new StripedCounter();
+    private final long uniqueAtStart;
+
+    private long flushDeadline;
+    private long forceDeadline;
+    private long snapshotDeadline;
+    private boolean changedSinceSnapshot;
+    private boolean unforced;
+    private boolean stopped;
+    private volatile boolean aborted;
+    private volatile long writtenCodes;
+
+    /**
+     * @param store               log records are appended to
+     * @param monitor             counts received codes and tells unique ones apart
+     * @param stagingCapacity     codes waiting for the dedup stage before append blocks
+     * @param dedupThreads        threads of the dedup stage
+     * @param orderedDedup        writes codes in staging buffer order, see {@link OrderedDedupStage}
+     * @param ringBatches         batches waiting between each dedup thread and the writer
+     * @param batchCodes          codes of the batches pooled for reuse
+     * @param bufferSize          bytes gathered before the buffer is written
+     * @param flushIntervalMillis longest time written codes wait in the buffer
+     * @param durability          when written codes are forced to disk
+     * @param forceIntervalMillis longest time written codes wait to be forced with periodic durability,
+     *                            with group commit it is the flush interval, for a staging buffer never drained
+     * @param snapshots           receives periodic snapshots, null to disable them
+     * @param snapshotIntervalMillis time between snapshots
+     */
+    AppendLog(final LogStore store, final Monitor monitor, final int stagingCapacity,
+              final int dedupThreads, final boolean orderedDedup, final int ringBatches, final int batchCodes, final int bufferSize, final long flushIntervalMillis,
+              final Durability durability, final long forceIntervalMillis,
+              final SnapshotStore snapshots, final long snapshotIntervalMillis) {
+        this.monitor = monitor;
+        this.uniqueAtStart = monitor.uniqueTotal();
+        this.snapshots = snapshots;
+        this.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+        this.stagingBuffer = new StagingBuffer(stagingCapacity);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, store.format().recordLength()));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.store = store;
+        this.format = store.format();
+        this.durability = durability;
+        this.forceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(forceIntervalMillis);
+        this.snapshotDeadline = System.nanoTime() + snapshotIntervalNanos;
+        this.writer = new Thread(this::writeLoop, "numbers-log-writer");
+        this.pool = new IntBatchPool(batchCodes,
+                (stagingCapacity + batchCodes - 1) / batchCodes + Math.max(1, dedupThreads) * ringBatches);
+        this.dedupStage = orderedDedup
+                ? new OrderedDedupStage(stagingBuffer, monitor, dedupThreads, ringBatches, writer)
+                : new UnorderedDedupStage(stagingBuffer, monitor, dedupThreads, ringBatches, pool, writer);
+        this.dedupStage.start();
+        this.writer.start();
+    }
+
+    /**
+     * @return pooled copy of codes for append or offer, so the caller can reuse its batch
+     */
+    IntBatch copyOf(final IntBatch codes) {
+        return pool.copyOf(codes);
+    }
+
+    /**
+     * queues codes for the writer, blocks while the staging buffer is full
+     * @param codes codes owned by the log from now on
+     * @throws IllegalStateException once shutdown gave up on the pipeline, also while blocked
+     */
+    void append(final IntBatch codes) {
+        final int size = codes.size();
+        try {
+            stagingBuffer.put(codes);
+            stagedCodes.add(size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * queues codes for the writer when the staging buffer has room for them
+     * @param codes codes from copyOf, owned by the log from now on, back in the pool when refused
+     * @return false when the staging buffer is full
+     */
+    boolean offer(final IntBatch codes) {
+        final int size = codes.size();
+        if (stagingBuffer.offer(codes)) {
+            stagedCodes.add(size);
+            return true;
+        }
+        pool.release(codes);
+        return false;
+    }
+
+    StagingBuffer stagingBuffer() {
+        return stagingBuffer;
+    }
+
+    DedupStage dedupStage() {
+        return dedupStage;
+    }
+
+    /**
+     * @return unique codes written to the log store so far
+     */
+    long writtenCodes() {
+        return writtenCodes;
+    }
+
+    /**
+     * @return codes taken by append or offer and not settled yet: waiting for the dedup stage,
+     * or counted as unique and not written to the log store; exact once the pipeline is idle
+     */
+    long pendingCodes() {
+        return stagedCodes.sum() - monitor.metrics().getDedupCodes()
+                + monitor.uniqueTotal() - uniqueAtStart - writtenCodes;
+    }
+
+    /**
+     * lets the pipeline drain every queued batch, flush, take a last snapshot and close the log; once the timeout
+     * elapsed the staging buffer refuses codes, appends waiting for room fail, the dedup stage and the writer are
+     * interrupted and the writer closes the log as soon as it stops
+     * @param timeoutMillis time to wait for the staging buffer, the writer and the last snapshot
+     * @return codes not written when the writer finished or the timeout elapsed, lost on exit
+     */
+    long shutdown(final long timeoutMillis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            if (dedupStage.stop(timeoutMillis)) {
+                writer.join(Math.max(1, remainingMillis(deadline)));
+            }
+            if (writer.isAlive()) {
+                abort();
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        if (snapshots != null) {
+            snapshots.shutdown(remainingMillis(deadline));
+        }
+        return pendingCodes();
+    }
+
+    private void abort() throws InterruptedException {
+        aborted = true;
+        stagingBuffer.close();
+        dedupStage.abort();
+        writer.interrupt();
+        writer.join(ABORT_JOIN_MILLIS);
+        if (writer.isAlive()) {
+            System.err.printf("Numbers log writer still running after shutdown, the log may be left open%n");
+        }
+    }
+
+    private static long remainingMillis(final long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private void writeLoop() {
+        try {
+            while (!stopped && !aborted) {
+                final IntBatch codes = nextCodes();
+                if (codes == DedupStage.STOP) {
+                    stopped = true;
+                } else if (codes != null) {
+                    write(codes);
+                    pool.release(codes);
+                }
+                if (durability == Durability.GROUP_COMMIT && dedupStage.isDrained()) {
+                    commit();
+                }
+                if (buffer.position() > 0 && System.nanoTime() - flushDeadline >= 0) {
+                    flush();
+                }
+                if (unforced && System.nanoTime() - forceDeadline >= 0) {
+                    commit();
+                }
+                if (snapshots != null && System.nanoTime() - snapshotDeadline >= 0) {
+                    snapshot();
+                }
+            }
+            if (!aborted) {
+                commit();
+                if (snapshots != null) {
+                    snapshot();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            if (!aborted) {
+                throw new IllegalStateException(e);
+            }
+        } finally {
+            closeStore();
+        }
+    }
+
+    private void closeStore() {
+        try {
+            store.close();
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("Failed to close numbers log: %s%n", e);
+        }
+    }
+
+    /**
+     * takes unique codes from the dedup stage, waits for them until the next flush, force or snapshot is due
+     * @return null when nothing arrived in time
+     */
+    private IntBatch nextCodes() {
+        final IntBatch codes = dedupStage.poll();
+        if (codes != null) {
+            return codes;
+        }
+        final long now = System.nanoTime();
+        long wait = IDLE_PARK_NANOS;
+        if (buffer.position() > 0) {
+            wait = Math.min(wait, flushDeadline - now);
+        }
+        if (unforced) {
+            wait = Math.min(wait, forceDeadline - now);
+        }
+        if (snapshots != null && changedSinceSnapshot) {
+            wait = Math.min(wait, snapshotDeadline - now);
+        }
+        if (wait > 0) {
+            LockSupport.parkNanos(this, wait);
+        }
+        return dedupStage.poll();
+    }
+
+    /**
+     * writes every batch the dedup stage has ready
+     */
+    private void drainRings() {
+        try {
+            IntBatch codes;
+            while (!stopped && (codes = dedupStage.poll()) != null) {
+                if (codes == DedupStage.STOP) {
+                    stopped = true;
+                } else {
+                    write(codes);
+                    pool.release(codes);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void snapshot() throws IOException, InterruptedException {
+        if (changedSinceSnapshot) {
+            dedupStage.pause(this::drainRings);
+            try {
+                drainRings();
+                commit();
+                changedSinceSnapshot = !snapshots.capture(monitor, store.size());
+            } finally {
+                dedupStage.resume();
+            }
+        }
+        snapshotDeadline = System.nanoTime() + snapshotIntervalNanos;
+    }
+
+    /**
+     * gathers codes Monitor saw for the first time into the buffer
+     */
+    private void write(final IntBatch codes) throws IOException {
+        if (codes.isEmpty()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < codes.size(); i++) {
+            if (buffer.remaining() < format.recordLength()) {
+                flush();
+            }
+            if (buffer.position() == 0) {
+                flushDeadline = System.nanoTime() + flushIntervalNanos;
+            }
+            format.write(codes.get(i), buffer);
+        }
+        changedSinceSnapshot = true;
+        monitor.metrics().logged(codes.size(), System.nanoTime() - start);
+    }
+
+    private void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        final long start = System.nanoTime();
+        buffer.flip();
+        final int records = buffer.remaining() / format.recordLength();
+        store.write(buffer);
+        buffer.clear();
+        writtenCodes += records;
+        monitor.metrics().written(System.nanoTime() - start);
+        if (durability != Durability.NONE && !unforced) {
+            unforced = true;
+            forceDeadline = start + (durability == Durability.PERIODIC ? forceIntervalNanos : flushIntervalNanos);
+        }
+    }
+
+    /**
+     * writes the buffer and forces written codes when the durability policy asks for it
+     */
+    private void commit() throws IOException {
+        flush();
+        if (unforced) {
+            final long start = System.nanoTime();
+            store.force();
+            unforced = false;
+            monitor.metrics().forced(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive coalescing of the codes one connection sends in small reads. Codes parsed from a read are held in the
+ * connection batch instead of being persisted straight away, until the batch reaches a target size or the oldest
+ * held code has waited the longest delay. The target is the number of codes expected within that delay, from a
+ * moving average of the time between codes of the connection: a trickle of codes gets a target of one and goes
+ * on at once, a flood gets full batches. Configured with conmuncher.coalesce.micros, 0 disables coalescing.
+ * Used by the thread reading the connection only
+ */
+final class BatchCoalescer {
+
+    static final long MAX_DELAY_MICROS = Long.getLong("conmuncher.coalesce.micros", 500);
+
+    /**
+     * weight of the last read in the moving average, as a shift: 1/8
+     */
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final int batchSize;
+    private final long maxDelayNanos;
+
+    private long nanosPerCode;
+    private long lastArrival;
+    private long heldSince;
+    private boolean held;
+    private boolean ended;
+
+    /**
+     * @param batchSize     codes of a full batch
+     * @param maxDelayMicros longest time codes are held, 0 to never hold them
+     */
+    BatchCoalescer(final int batchSize, final long maxDelayMicros) {
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.nanosPerCode = maxDelayNanos;
+    }
+
+    /**
+     * updates the arrival rate with codes parsed from one read
+     */
+    void arrived(final int codes, final long now) {
+        if (codes == 0) {
+            return;
+        }
+        if (lastArrival != 0) {
+            final long gap = Math.min(now - lastArrival, maxDelayNanos) / codes;
+            nanosPerCode += (gap - nanosPerCode) >> AVERAGE_SHIFT;
+        }
+        lastArrival = now;
+    }
+
+    /**
+     * @param pending codes in the connection batch
+     * @return true when they should wait for more codes, false when they should be persisted now
+     */
+    boolean hold(final int pending, final long now) {
+        if (pending == 0 || ended || pending >= target()) {
+            held = false;
+            return false;
+        }
+        if (!held) {
+            held = true;
+            heldSince = now;
+        }
+        if (now - heldSince >= maxDelayNanos) {
+            held = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * held codes, if any, were persisted along with the batch
+     */
+    void flushed() {
+        held = false;
+    }
+
+    /**
+     * @return true while codes are held
+     */
+    boolean isHolding() {
+        return held;
+    }
+
+    /**
+     * @return System.nanoTime when held codes must be persisted
+     */
+    long deadline() {
+        return heldSince + maxDelayNanos;
+    }
+
+    /**
+     * no more codes will arrive, held codes go on with the next hold call
+     */
+    void end() {
+        ended = true;
+    }
+
+    boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * @return codes expected within the longest delay, between 1 and a full batch
+     */
+    int target() {
+        return (int) Math.max(1, Math.min(batchSize, maxDelayNanos / Math.max(1, nanosPerCode)));
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read state of one client connection: bytes received, the parser working through them, the coalescer
+ * deciding how long its codes wait for more and, while the connection is paused by backpressure,
+ * the parse result waiting for its batch to be persisted.
+ * Replies to commands go back through the connection channel
+ */
+final class ClientConnection {
+
+    private final String name;
+    private final ByteBuffer buffer;
+    private final WritableByteChannel replies;
+    private final CodeParser parser;
+    private final BatchCoalescer coalescer;
+    private final long connectedAt = System.nanoTime();
+    private final AtomicLong codesReceived = new AtomicLong();
+    private CodeParser.Result pendingResult;
+    private int readTimeoutMillis;
+
+    /**
+     * @param replies        channel back to the client, non-blocking ones drop what the client leaves unread
+     * @param coalesceMicros longest time parsed codes wait for more, see {@link BatchCoalescer}
+     */
+    ClientConnection(final String name, final ByteBuffer buffer, final int batchSize, final long coalesceMicros,
+                     final WritableByteChannel replies) {
+        this.name = name;
+        this.buffer = buffer;
+        this.replies = replies;
+        this.parser = new CodeParser(batchSize);
+        this.coalescer = new BatchCoalescer(batchSize, coalesceMicros);
+    }
+
+    /**
+     * @return remote address of the client
+     */
+    String name() {
+        return name;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    CodeParser parser() {
+        return parser;
+    }
+
+    /**
+     * @return decides how long parsed codes wait in the parser batch for more codes
+     */
+    BatchCoalescer coalescer() {
+        return coalescer;
+    }
+
+    /**
+     * @return socket timeout last set for blocking reads, 0 when reads wait for data
+     */
+    int readTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    void readTimeoutMillis(final int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * writes a reply line to the client
+     */
+    void reply(final String line) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining() && replies.write(bytes) > 0) {
+            // a non-blocking channel writes nothing once the client stops reading
+        }
+    }
+
+    void received(final int codes) {
+        codesReceived.addAndGet(codes);
+    }
+
+    /**
+     * @return codes received per second since the client connected
+     */
+    long codesPerSecond() {
+        final long elapsed = Math.max(1, System.nanoTime() - connectedAt);
+        return codesReceived.get() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * stops reading until the parser batch is persisted
+     * @param result parse result to act on once the batch is persisted
+     */
+    void pause(final CodeParser.Result result) {
+        this.pendingResult = result;
+    }
+
+    boolean isPaused() {
+        return pendingResult != null;
+    }
+
+    /**
+     * @return parse result kept by pause, null when connection is not paused
+     */
+    CodeParser.Result resume() {
+        final CodeParser.Result result = pendingResult;
+        pendingResult = null;
+        return result;
+    }
+}
@@ -0,0 +1,179 @@
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Partitioned dedup across several conmuncher instances. The nine digit code space is split in equal ranges,
+ * node i owns codes from i * 10^9 / nodes on, so each node only allocates bitmap pages of its own range.
+ * Codes a node receives for another range are forwarded in batches to their owner through a {@link PeerLink},
+ * codes forwarded to a node are persisted by it like codes of its own clients. Links send from threads of their
+ * own, a peer that is slow or gone never fails the connection that received the codes.
+ * Configured with conmuncher.cluster.nodes, host:port peer addresses of every node listed in the same order
+ * on each node, and conmuncher.cluster.node, index of this node in that list
+ */
+final class Cluster {
+
+    static final String NODES = System.getProperty("conmuncher.cluster.nodes", "");
+    static final int NODE = Integer.getInteger("conmuncher.cluster.node", 0);
+
+    private final int node;
+    private final PeerLink[] links;
+    private final PeerListener listener;
+    private final Monitor monitor;
+    private final ThreadLocal<Splitter> splitters;
+
+    /**
+     * @param nodes     peer addresses of every node
+     * @param node      index of this node, its peer address is bound straight away
+     * @param batchSize codes forwarded in one frame at most
+     * @param sink      persists codes forwarded to this node, the batch is reused once it returns
+     */
+    Cluster(final List<InetSocketAddress> nodes, final int node, final int batchSize,
+            final Consumer<IntBatch> sink, final Monitor monitor) {
+        if (node < 0 || node >= nodes.size()) {
+            throw new IllegalStateException("cluster node " + node + " is not one of " + nodes);
+        }
+        this.node = node;
+        this.monitor = monitor;
+        this.listener = new PeerListener(nodes.get(node), batchSize, sink, monitor);
+        this.links = new PeerLink[nodes.size()];
+        for (int i = 0; i < links.length; i++) {
+            if (i != node) {
+                links[i] = new PeerLink(nodes.get(i), batchSize, monitor.metrics(), "cluster-peer-sender-" + i);
+            }
+        }
+        this.splitters = ThreadLocal.withInitial(() -> new Splitter(batchSize));
+    }
+
+    /**
+     * @param addresses comma separated host:port peer addresses
+     * @return peer addresses, empty when none are given
+     */
+    static List<InetSocketAddress> parseNodes(final String addresses) {
+        final List<InetSocketAddress> nodes = new ArrayList<>();
+        if (addresses.trim().isEmpty()) {
+            return nodes;
+        }
+        for (String address : addresses.split(",")) {
+            final int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalStateException("cluster node address " + address + " is not host:port");
+            }
+            nodes.add(new InetSocketAddress(address.substring(0, colon).trim(),
+                    Integer.parseInt(address.substring(colon + 1).trim())));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return index of the node owning code in a cluster of nodes
+     */
+    static int owner(final int code, final int nodes) {
+        return (int) ((long) code * nodes / CodeBitmap.CODE_SPACE);
+    }
+
+    /**
+     * queues codes owned by other nodes for their links, blocking while a link queue is full,
+     * codes owned by this node are left in the batch
+     */
+    void route(final IntBatch batch) {
+        final Splitter splitter = splitters.get();
+        batch.retain(splitter);
+        splitter.sendAll();
+    }
+
+    /**
+     * @return true when route does not block for any batch of at most batchSize codes
+     */
+    boolean hasRoom() {
+        for (PeerLink link : links) {
+            if (link != null && !link.hasRoom()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return unique codes of every node, peers counted as they last reported, codes still on their way
+     * to a peer are not counted
+     */
+    long uniqueTotal() {
+        long total = monitor.uniqueTotal();
+        for (PeerLink link : links) {
+            if (link != null) {
+                total += link.peerTotal();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * closes links to peers and stops taking codes from them, once it returns no forwarded code reaches the sink
+     */
+    void close() {
+        close(TimeUnit.SECONDS.toMillis(15));
+    }
+
+    /**
+     * lets links forward queued codes, then closes them and stops taking codes from peers
+     * @param timeoutMillis time links have to forward queued codes and peer readers to persist the codes they read
+     * @return codes still queued for a peer at the timeout, lost
+     */
+    long close(final long timeoutMillis) {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long lost = 0;
+        for (PeerLink link : links) {
+            if (link != null) {
+                lost += link.close(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            }
+        }
+        listener.close(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        System.out.printf("Cluster links closed in %d ms, %d forwarded codes lost%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lost);
+        return lost;
+    }
+
+    /**
+     * gathers codes of other nodes, one per connection thread so forwarding allocates nothing
+     */
+    private final class Splitter implements IntPredicate {
+
+        private final IntBatch[] outgoing = new IntBatch[links.length];
+
+        private Splitter(final int batchSize) {
+            for (int i = 0; i < outgoing.length; i++) {
+                outgoing[i] = new IntBatch(batchSize);
+            }
+        }
+
+        @Override
+        public boolean test(final int code) {
+            final int owner = owner(code, links.length);
+            if (owner == node) {
+                return true;
+            }
+            if (outgoing[owner].isFull()) {
+                send(owner);
+            }
+            outgoing[owner].add(code);
+            return false;
+        }
+
+        private void sendAll() {
+            for (int i = 0; i < outgoing.length; i++) {
+                if (!outgoing[i].isEmpty()) {
+                    send(i);
+                }
+            }
+        }
+
+        private void send(final int owner) {
+            outgoing[owner] = links[owner].forward(outgoing[owner]);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Lock-free bitmap holding one bit per nine digit code.
+ * <p>
+ * The 10^9 code space fits in 125MB of bits; pages of the bitmap are allocated lazily
+ * so sparse runs only pay for the ranges they actually touch.
+ */
+public final class CodeBitmap {
+
+    public static final int CODE_SPACE = 1_000_000_000;
+
+    static final int PAGE_SHIFT = 20;
+    static final int PAGE_BITS = 1 << PAGE_SHIFT;
+    static final int WORDS_PER_PAGE = PAGE_BITS >>> 6;
+    static final int PAGE_COUNT = (CODE_SPACE + PAGE_BITS - 1) >>> PAGE_SHIFT;
+
+    private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(PAGE_COUNT);
+    private final LongAdder cardinality = new LongAdder();
+    private final AtomicInteger allocatedPages = new AtomicInteger();
+
+    /**
+     * sets the bit for code
+     * @param code nine digit code
+     * @return true when code was not present before, false when it is a duplicate
+     */
+    public boolean add(final int code) {
+        checkCode(code);
+        final AtomicLongArray page = page(code >>> PAGE_SHIFT);
+        final int word = (code & (PAGE_BITS - 1)) >>> 6;
+        final long mask = 1L << code;
+        long current;
+        do {
+            current = page.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+        } while (!page.compareAndSet(word, current, current | mask));
+        cardinality.increment();
+        return true;
+    }
+
+    /**
+     * @param code nine digit code
+     * @return true when code has been added before
+     */
+    public boolean contains(final int code) {
+        checkCode(code);
+        final AtomicLongArray page = pages.get(code >>> PAGE_SHIFT);
+        return page != null && (page.get((code & (PAGE_BITS - 1)) >>> 6) & (1L << code)) != 0;
+    }
+
+    /**
+     * calls consumer with every code added between from and to, both included, in ascending order.
+     * Reads pages without locking, codes added meanwhile may or may not be seen
+     * @return number of codes found
+     */
+    public long forEach(final int from, final int to, final IntConsumer consumer) {
+        return scan(from, to, consumer);
+    }
+
+    /**
+     * @return number of codes added between from and to, both included
+     */
+    public long count(final int from, final int to) {
+        return scan(from, to, null);
+    }
+
+    /**
+     * @return number of distinct codes added
+     */
+    public long size() {
+        return cardinality.sum();
+    }
+
+    /**
+     * @return heap bytes held by allocated pages
+     */
+    public long allocatedBytes() {
+        return (long) allocatedPages.get() * WORDS_PER_PAGE * Long.BYTES;
+    }
+
+    /**
+     * copies allocated pages, pages never allocated are left null in the image
+     * @param image page words indexed by page, arrays of a previous copy are reused
+     * @return number of pages copied
+     */
+    int copyTo(final long[][] image) {
+        int copied = 0;
+        for (int index = 0; index < PAGE_COUNT; index++) {
+            final AtomicLongArray page = pages.get(index);
+            if (page != null) {
+                if (image[index] == null) {
+                    image[index] = new long[WORDS_PER_PAGE];
+                }
+                final long[] words = image[index];
+                for (int word = 0; word < WORDS_PER_PAGE; word++) {
+                    words[word] = page.get(word);
+                }
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * merges page words copied by copyTo into this bitmap
+     * @param index page index
+     * @param words WORDS_PER_PAGE words of the page
+     */
+    void load(final int index, final LongBuffer words) {
+        final AtomicLongArray page = page(index);
+        for (int word = 0; word < WORDS_PER_PAGE; word++) {
+            final long bits = words.get(word);
+            if (bits != 0) {
+                final long previous = page.getAndAccumulate(word, bits, (current, added) -> current | added);
+                cardinality.add(Long.bitCount(bits & ~previous));
+            }
+        }
+    }
+
+    /**
+     * @param consumer receives codes found, null to only count them
+     */
+    private long scan(final int from, final int to, final IntConsumer consumer) {
+        checkCode(from);
+        checkCode(to);
+        long found = 0;
+        for (int index = from >>> PAGE_SHIFT; index <= to >>> PAGE_SHIFT; index++) {
+            final AtomicLongArray page = pages.get(index);
+            if (page == null) {
+                continue;
+            }
+            final int pageBase = index << PAGE_SHIFT;
+            final int lastWord = (Math.min(to, pageBase + PAGE_BITS - 1) - pageBase) >>> 6;
+            for (int word = (Math.max(from, pageBase) - pageBase) >>> 6; word <= lastWord; word++) {
+                final int base = pageBase + (word << 6);
+                long bits = page.get(word);
+                if (base < from) {
+                    bits &= -1L << (from - base);
+                }
+                if (to - base < 63) {
+                    bits &= -1L >>> (63 - (to - base));
+                }
+                if (consumer == null) {
+                    found += Long.bitCount(bits);
+                    continue;
+                }
+                for (; bits != 0; bits &= bits - 1) {
+                    consumer.accept(base + Long.numberOfTrailingZeros(bits));
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private AtomicLongArray page(final int index) {
+        AtomicLongArray page = pages.get(index);
+        if (page == null) {
+            if (pages.compareAndSet(index, null, new AtomicLongArray(WORDS_PER_PAGE))) {
+                allocatedPages.incrementAndGet();
+            }
+            page = pages.get(index);
+        }
+        return page;
+    }
+
+    private static void checkCode(final int code) {
+        if (code < 0 || code >= CODE_SPACE) {
+            throw new IllegalArgumentException("code out of nine digit range: " + code);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level parser for input lines. Checks nine ASCII digits followed by a newline and builds the code
+ * value in the same pass, no String is created. Parser state survives between buffers, so a line split
+ * across socket reads is parsed as one line, and a last line without newline is parsed at end of stream.
+ * One parser instance serves one connection
+ */
+final class CodeParser {
+
+    enum Result {
+        /** every byte of the buffer has been consumed */
+        DRAINED,
+        /** batch is full, it has to be emptied before parsing the rest of the buffer */
+        BATCH_FULL,
+        /** the termination line has been received */
+        TERMINATE,
+        /** the stats line has been received, the connection goes on */
+        STATS,
+        /** the current line is not a nine digit code, the connection has to stop */
+        INVALID
+    }
+
+    static final int CODE_LENGTH = 9;
+    static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    static final int RECORD_LENGTH = CODE_LENGTH + NEWLINE.length;
+
+    private static final byte[] TERMINATE = Server.TERMINATE_SIGNAL.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATS = Server.STATS_COMMAND.getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_LINE_LENGTH = Math.max(CODE_LENGTH, Math.max(TERMINATE.length, STATS.length));
+
+    private final IntBatch batch;
+
+    private int length;
+    private int value;
+    private boolean digits = true;
+    private boolean terminate = true;
+    private boolean stats = true;
+    private boolean carriageReturn;
+
+    CodeParser(final int batchSize) {
+        this.batch = new IntBatch(batchSize);
+    }
+
+    /**
+     * @return batch receiving codes of valid lines
+     */
+    IntBatch batch() {
+        return batch;
+    }
+
+    /**
+     * consumes buffer bytes until it is drained, the batch fills up or a line ends the connection.
+     * A line ends with a line feed, a carriage return, or both, as BufferedReader.readLine reads it;
+     * empty lines are skipped
+     * @param buffer bytes received from a connection
+     * @return parse result
+     */
+    Result parse(final ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (batch.isFull()) {
+                return Result.BATCH_FULL;
+            }
+            final byte b = buffer.get();
+            if (b == '\n' && carriageReturn) {
+                carriageReturn = false;
+            } else if (b == '\n' || b == '\r') {
+                final Result result = endLine();
+                carriageReturn = b == '\r';
+                if (result != null) {
+                    return result;
+                }
+            } else if (length == MAX_LINE_LENGTH) {
+                reset();
+                return Result.INVALID;
+            } else {
+                carriageReturn = false;
+                digits &= b >= '0' && b <= '9';
+                terminate &= length < TERMINATE.length && b == TERMINATE[length];
+                stats &= length < STATS.length && b == STATS[length];
+                if (!digits && !terminate && !stats) {
+                    reset();
+                    return Result.INVALID;
+                }
+                value = value * 10 + (b - '0');
+                length++;
+            }
+        }
+        return Result.DRAINED;
+    }
+
+    /**
+     * ends the connection input: a last line sent without newline is parsed as if it had one
+     * @return parse result of the last line, BATCH_FULL when the batch has to be emptied first
+     */
+    Result end() {
+        if (length == 0) {
+            return Result.DRAINED;
+        }
+        if (batch.isFull()) {
+            return Result.BATCH_FULL;
+        }
+        final Result result = endLine();
+        return result == null ? Result.DRAINED : result;
+    }
+
+    /**
+     * @return result ending the connection or reporting a command, null when the line was a code or empty
+     */
+    private Result endLine() {
+        Result result = null;
+        if (length == CODE_LENGTH && digits) {
+            batch.add(value);
+        } else if (length == TERMINATE.length && terminate) {
+            result = Result.TERMINATE;
+        } else if (length == STATS.length && stats) {
+            result = Result.STATS;
+        } else if (length != 0) {
+            result = Result.INVALID;
+        }
+        reset();
+        return result;
+    }
+
+    /**
+     * reads a record written by format
+     * @param source buffer holding records
+     * @param offset index of the record first byte
+     * @return code of the record, -1 when the record is not nine digits followed by the native newline
+     */
+    static int decode(final ByteBuffer source, final int offset) {
+        int code = 0;
+        for (int i = offset; i < offset + CODE_LENGTH; i++) {
+            final byte b = source.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            code = code * 10 + (b - '0');
+        }
+        for (int i = 0; i < NEWLINE.length; i++) {
+            if (source.get(offset + CODE_LENGTH + i) != NEWLINE[i]) {
+                return -1;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * writes code as nine ASCII digits followed by the native newline
+     * @return number of bytes written
+     */
+    static int format(final int code, final byte[] target, final int offset) {
+        int remaining = code;
+        for (int i = offset + CODE_LENGTH - 1; i >= offset; i--) {
+            target[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        System.arraycopy(NEWLINE, 0, target, offset + CODE_LENGTH, NEWLINE.length);
+        return RECORD_LENGTH;
+    }
+
+    /**
+     * puts code as nine ASCII digits followed by the native newline at the buffer position
+     */
+    static void format(final int code, final ByteBuffer target) {
+        final int offset = target.position();
+        int remaining = code;
+        for (int i = offset + CODE_LENGTH - 1; i >= offset; i--) {
+            target.put(i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+        target.position(offset + CODE_LENGTH);
+        target.put(NEWLINE);
+    }
+
+    private void reset() {
+        length = 0;
+        value = 0;
+        digits = true;
+        terminate = true;
+        stats = true;
+        carriageReturn = false;
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Read side over unique codes while the server keeps running. Membership checks, range counts and range
+ * iteration are answered from the Monitor bitmap in memory, codes seen there may still be on their way
+ * to the log. forEachLogged streams codes persisted so far in log order, straight from the numbers log
+ * or its segments through read channels of its own, without stopping the log writer
+ */
+public final class CodeQuery {
+
+    private final Monitor monitor;
+    private final LogStore store;
+
+    CodeQuery(final Monitor monitor, final LogStore store) {
+        this.monitor = monitor;
+        this.store = store;
+    }
+
+    /**
+     * @return true when code has been received before
+     */
+    public boolean contains(final int code) {
+        return monitor.contains(code);
+    }
+
+    /**
+     * @return number of unique codes between from and to, both included
+     */
+    public long count(final int from, final int to) {
+        return monitor.countUnique(from, to);
+    }
+
+    /**
+     * calls consumer with unique codes between from and to, both included, in ascending order
+     * @return number of codes found
+     */
+    public long forEach(final int from, final int to, final IntConsumer consumer) {
+        return monitor.forEachUnique(from, to, consumer);
+    }
+
+    /**
+     * calls consumer with every code written to the log so far, in log order
+     * @return number of codes streamed
+     */
+    public long forEachLogged(final IntConsumer consumer) {
+        try {
+            return store.scan(consumer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Dedup stage of the persistence pipeline, between the staging buffer and the log writer: its threads count
+ * batches of codes with Monitor and hand the codes seen for the first time to the writer, which writes batches
+ * in the order poll returns them
+ */
+interface DedupStage {
+
+    IntBatch STOP = new IntBatch(0);
+
+    void start();
+
+    /**
+     * asks every thread to hand over what it holds and stop, poll returns STOP once they all did
+     * @param timeoutMillis time to wait for room in a full staging buffer
+     * @return false when the stage could not be asked to stop in time
+     */
+    boolean stop(long timeoutMillis);
+
+    /**
+     * interrupts every thread of the stage, batches they hold are dropped
+     */
+    void abort();
+
+    /**
+     * called by the writer thread only
+     * @return next batch to write, null when none is ready yet, STOP once the stage has stopped
+     */
+    IntBatch poll();
+
+    /**
+     * @return true when no batch is waiting in the staging buffer or in the stage
+     */
+    boolean isDrained();
+
+    /**
+     * stops the stage at batch boundaries, called by the writer when it needs Monitor to hold exactly
+     * the codes it wrote; drain writes every batch poll returns, so the stage can get to a boundary
+     */
+    void pause(Runnable drain) throws InterruptedException;
+
+    void resume();
+
+    /**
+     * @return rings batches wait in for the writer
+     */
+    SpscRing<IntBatch>[] rings();
+}
@@ -0,0 +1,26 @@
+/**
+ * Selects when the log writer forces written codes to disk, configured with the conmuncher.durability
+ * system property. Unforced codes live in the OS page cache and can be lost on power failure even though
+ * Monitor already counted them as unique
+ */
+public enum Durability {
+
+    /**
+     * never forces, the OS writes the page cache back when it sees fit
+     */
+    NONE,
+
+    /**
+     * forces written codes every conmuncher.fsync.millis
+     */
+    PERIODIC,
+
+    /**
+     * forces as soon as the staging buffer is drained, every batch staged meanwhile shares one force
+     */
+    GROUP_COMMIT;
+
+    public static Durability fromSystemProperty() {
+        return Durability.valueOf(System.getProperty("conmuncher.durability", NONE.name()).toUpperCase());
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Single numbers log file appended through a file channel kept open for the whole run
+ */
+final class FileLogStore implements LogStore {
+
+    private final Path path;
+    private final LogFormat format;
+    private final FileChannel channel;
+    private volatile long written;
+
+    FileLogStore(final Path path, final LogFormat format) {
+        this.path = path;
+        this.format = format;
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.written = channel.size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void write(final ByteBuffer records) throws IOException {
+        final int length = records.remaining();
+        while (records.hasRemaining()) {
+            channel.write(records);
+        }
+        written += length;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public LogFormat format() {
+        return format;
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public long recover(final Monitor monitor, final long fromOffset) {
+        return LogRecovery.recover(path, monitor, fromOffset, format);
+    }
+
+    @Override
+    public long scan(final IntConsumer codes) throws IOException {
+        return LogReader.read(path, written, format, codes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * Selects how Server reads client connections, configured with the conmuncher.ingestion system property
+ */
+public enum IngestionMode {
+
+    /**
+     * one pooled thread per connection blocked on socket reads, connections beyond the limit wait for a thread
+     */
+    BLOCKING,
+
+    /**
+     * one virtual thread per connection blocked on socket reads, connections beyond the limit wait for a
+     * semaphore permit. Needs a JDK 21+ runtime
+     */
+    VIRTUAL,
+
+    /**
+     * a single selector thread reads every connection, connections beyond the limit are closed straight away
+     */
+    NIO;
+
+    public static IngestionMode fromSystemProperty() {
+        return IngestionMode.valueOf(System.getProperty("conmuncher.ingestion", BLOCKING.name()).toUpperCase());
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * Reusable batch of primitive codes handed from ingestion to persistence
+ */
+public final class IntBatch {
+
+    private final int[] codes;
+    private int size;
+    private long stagedAt;
+    private long sequence;
+    private final AtomicInteger pendingWorkers = new AtomicInteger();
+
+    public IntBatch(final int capacity) {
+        this.codes = new int[capacity];
+    }
+
+    public void add(final int code) {
+        codes[size++] = code;
+    }
+
+    public int get(final int index) {
+        return codes[index];
+    }
+
+    public void set(final int index, final int code) {
+        codes[index] = code;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return codes.length;
+    }
+
+    public boolean isFull() {
+        return size == codes.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * keeps the codes accepted by filter, in order, and drops the others
+     */
+    public void retain(final IntPredicate filter) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            final int code = codes[i];
+            if (filter.test(code)) {
+                codes[kept++] = code;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * replaces codes of this batch with the codes of source, which must fit
+     */
+    public void copyFrom(final IntBatch source) {
+        System.arraycopy(source.codes, 0, codes, 0, source.size);
+        size = source.size;
+    }
+
+    /**
+     * @return System.nanoTime when the batch entered the staging buffer
+     */
+    long stagedAt() {
+        return stagedAt;
+    }
+
+    void stagedAt(final long nanos) {
+        this.stagedAt = nanos;
+    }
+
+    /**
+     * @return position of the batch in the ordered dedup stage
+     */
+    long sequence() {
+        return sequence;
+    }
+
+    /**
+     * hands the batch to workers of the ordered dedup stage
+     * @param workers workers sharing the batch
+     */
+    void dispatch(final long sequence, final int workers) {
+        this.sequence = sequence;
+        this.pendingWorkers.set(workers);
+    }
+
+    /**
+     * @return true for the last worker done with the batch, it sees codes set by the others
+     */
+    boolean workerDone() {
+        return pendingWorkers.decrementAndGet() == 0;
+    }
+}
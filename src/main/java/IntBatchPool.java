@@ -0,0 +1,44 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of batches reused between ingestion and the log writer, so steady-state persistence
+ * allocates nothing. A new batch is created when the pool is empty, a batch returned to a full pool is left
+ * to the garbage collector
+ */
+final class IntBatchPool {
+
+    private final int batchCapacity;
+    private final BlockingQueue<IntBatch> free;
+
+    /**
+     * @param batchCapacity codes held by pooled batches
+     * @param poolSize      batches kept for reuse
+     */
+    IntBatchPool(final int batchCapacity, final int poolSize) {
+        this.batchCapacity = batchCapacity;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    /**
+     * @return pooled batch holding the codes of source, a new one when source does not fit pooled batches
+     */
+    IntBatch copyOf(final IntBatch source) {
+        IntBatch batch = source.size() <= batchCapacity ? free.poll() : null;
+        if (batch == null) {
+            batch = new IntBatch(Math.max(batchCapacity, source.size()));
+        }
+        batch.copyFrom(source);
+        return batch;
+    }
+
+    /**
+     * gives a batch back for reuse once its codes are consumed
+     */
+    void release(final IntBatch batch) {
+        if (batch.capacity() == batchCapacity) {
+            batch.clear();
+            free.offer(batch);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocation-free latency histogram with log-linear buckets in the HdrHistogram style: every power of two is
+ * split in 16 buckets, so recorded values keep about 6% precision from nanoseconds to hours.
+ * Recording is a single atomic increment, values are cumulative since start
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter total = new StripedCounter();
+
+    void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.getAndIncrement(index(value));
+        total.add(value);
+    }
+
+    long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    long mean() {
+        final long count = count();
+        return count == 0 ? 0 : total.sum() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return highest value of the bucket holding the percentile, 0 when nothing was recorded
+     */
+    long percentile(final double percentile) {
+        final long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(BUCKETS - 1);
+    }
+
+    static int index(final long value) {
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value | (2 * SUB_BUCKETS - 1));
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long highestValue(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index >> SUB_BUCKET_BITS) - 1;
+        final long bucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((bucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams binary numbers log files back to the text format, one code per line, for consumers of numbers.log.
+ * Files are converted in the order given, so segments must be passed oldest first; a zero filled segment tail
+ * ends a file. Usage: java -cp conmuncher.jar LogExporter numbers.bin > numbers.log
+ */
+public final class LogExporter {
+
+    private static final int BLOCK_RECORDS = 1 << 14;
+
+    private LogExporter() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: LogExporter <numbers.bin | numbers-NNNNNN.bin...>");
+            System.exit(1);
+        }
+        final List<Path> inputs = new ArrayList<>();
+        for (String arg : args) {
+            inputs.add(Paths.get(arg));
+        }
+        try (FileOutputStream out = new FileOutputStream(FileDescriptor.out)) {
+            System.err.printf("Exported %d codes%n", export(inputs, out.getChannel()));
+        }
+    }
+
+    /**
+     * @param inputs binary log files, in log order
+     * @param output receives one text record per code
+     * @return number of codes exported
+     */
+    static long export(final List<Path> inputs, final WritableByteChannel output) throws IOException {
+        final int recordLength = LogFormat.BINARY.recordLength();
+        final ByteBuffer in = ByteBuffer.allocateDirect(BLOCK_RECORDS * recordLength);
+        final ByteBuffer out = ByteBuffer.allocateDirect(BLOCK_RECORDS * LogFormat.TEXT.recordLength());
+        long codes = 0;
+        for (Path input : inputs) {
+            try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+                in.clear();
+                boolean end = false;
+                while (!end && channel.read(in) >= 0) {
+                    in.flip();
+                    for (; in.remaining() >= recordLength; in.position(in.position() + recordLength)) {
+                        if (in.getInt(in.position()) == 0) {
+                            end = true;
+                            break;
+                        }
+                        final int code = LogFormat.BINARY.read(in, in.position());
+                        if (code < 0) {
+                            throw new IllegalStateException("corrupt record in " + input + " at offset "
+                                    + (channel.position() - in.limit() + in.position()));
+                        }
+                        LogFormat.TEXT.write(code, out);
+                        codes++;
+                    }
+                    writeFully(output, out);
+                    in.compact();
+                }
+            }
+        }
+        return codes;
+    }
+
+    private static void writeFully(final WritableByteChannel output, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Selects how codes are encoded in numbers log, configured with the conmuncher.log.format system property.
+ * Both formats have fixed length records, so logs are recovered in parallel chunks and snapshot offsets
+ * stay record aligned
+ */
+public enum LogFormat {
+
+    /**
+     * nine ASCII digits followed by the native newline, in numbers.log
+     */
+    TEXT("log", CodeParser.RECORD_LENGTH) {
+        @Override
+        void write(final int code, final ByteBuffer target) {
+            CodeParser.format(code, target);
+        }
+
+        @Override
+        int read(final ByteBuffer source, final int offset) {
+            return CodeParser.decode(source, offset);
+        }
+    },
+
+    /**
+     * 4 byte big-endian int with its top bit set, so a zero filled segment tail never reads as code 0,
+     * in numbers.bin. LogExporter converts it back to text
+     */
+    BINARY("bin", 4) {
+        @Override
+        void write(final int code, final ByteBuffer target) {
+            target.putInt(code | MARKER);
+        }
+
+        @Override
+        int read(final ByteBuffer source, final int offset) {
+            final int record = source.getInt(offset);
+            final int code = record & ~MARKER;
+            return (record & MARKER) != 0 && code < CodeBitmap.CODE_SPACE ? code : -1;
+        }
+    };
+
+    private static final int MARKER = 1 << 31;
+
+    private final String extension;
+    private final int recordLength;
+
+    LogFormat(final String extension, final int recordLength) {
+        this.extension = extension;
+        this.recordLength = recordLength;
+    }
+
+    /**
+     * writes code as one record at the target position
+     */
+    abstract void write(int code, ByteBuffer target);
+
+    /**
+     * @return code of the record at offset, -1 when it is not a valid record
+     */
+    abstract int read(ByteBuffer source, int offset);
+
+    int recordLength() {
+        return recordLength;
+    }
+
+    /**
+     * @return extension of numbers log files in this format
+     */
+    String extension() {
+        return extension;
+    }
+
+    public static LogFormat fromSystemProperty() {
+        return LogFormat.valueOf(System.getProperty("conmuncher.log.format", TEXT.name()).toUpperCase());
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * Selects how Repository lays numbers log out on disk, configured with the conmuncher.log.layout system property
+ */
+public enum LogLayout {
+
+    /**
+     * one numbers.log file growing for the whole run, written through a file channel
+     */
+    FILE,
+
+    /**
+     * memory mapped segment files of conmuncher.segment.bytes each, rolled over when full,
+     * with numbers.index holding the boundaries of full segments
+     */
+    SEGMENTED;
+
+    public static LogLayout fromSystemProperty() {
+        return LogLayout.valueOf(System.getProperty("conmuncher.log.layout", FILE.name()).toUpperCase());
+    }
+}
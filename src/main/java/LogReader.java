@@ -0,0 +1,48 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Sequential reader of numbers log files, used to stream stored codes while the writer keeps appending
+ */
+final class LogReader {
+
+    private static final int BLOCK_RECORDS = 1 << 14;
+
+    private LogReader() {
+    }
+
+    /**
+     * @param length bytes to read from the start of the file, a partial last record is left out
+     * @return number of codes read
+     */
+    static long read(final Path path, final long length, final LogFormat format, final IntConsumer codes)
+            throws IOException {
+        final int recordLength = format.recordLength();
+        final long records = length / recordLength;
+        final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_RECORDS * recordLength);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long position = 0; position < records * recordLength; position += block.limit()) {
+                block.clear().limit((int) Math.min(block.capacity(), records * recordLength - position));
+                while (block.hasRemaining()) {
+                    if (channel.read(block, position + block.position()) < 0) {
+                        throw new EOFException(path + " is shorter than " + length + " bytes");
+                    }
+                }
+                block.flip();
+                for (int offset = 0; offset < block.limit(); offset += recordLength) {
+                    final int code = format.read(block, offset);
+                    if (code < 0) {
+                        throw new IllegalStateException("corrupt record in " + path + " at offset " + (position + offset));
+                    }
+                    codes.accept(code);
+                }
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rebuilds dedup state of a previous run from numbers log. Records have a fixed length in every log format, so the log is split
+ * in record aligned chunks that are memory mapped and parsed in parallel on the fork-join pool.
+ * A partial last record left by a crash is truncated so appending resumes on a record boundary
+ */
+final class LogRecovery {
+
+    static final long CHUNK_RECORDS = 1 << 22;
+
+    private LogRecovery() {
+    }
+
+    /**
+     * restores codes of the log into monitor
+     * @param path       log written by a previous run, created when missing
+     * @param monitor    receives recovered codes
+     * @param fromOffset log offset to start from, codes before it are already in monitor
+     * @param format     encoding of the log records
+     * @return number of records recovered
+     */
+    static long recover(final Path path, final Monitor monitor, final long fromOffset, final LogFormat format) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            final long records = size / format.recordLength();
+            if (records * format.recordLength() < size) {
+                channel.truncate(records * format.recordLength());
+            }
+            final long fromRecord = Math.min(fromOffset / format.recordLength(), records);
+            return recover(channel, monitor, fromRecord, records, format);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * restores codes of a range of whole records into monitor
+     * @return number of records recovered
+     */
+    static long recover(final FileChannel channel, final Monitor monitor, final long fromRecord, final long toRecord,
+                        final LogFormat format) {
+        return ForkJoinPool.commonPool().invoke(new ChunkTask(channel, monitor, fromRecord, toRecord, format));
+    }
+
+    private static final class ChunkTask extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final Monitor monitor;
+        private final long fromRecord;
+        private final long toRecord;
+        private final LogFormat format;
+
+        private ChunkTask(final FileChannel channel, final Monitor monitor, final long fromRecord, final long toRecord,
+                          final LogFormat format) {
+            this.channel = channel;
+            this.monitor = monitor;
+            this.fromRecord = fromRecord;
+            this.toRecord = toRecord;
+            this.format = format;
+        }
+
+        @Override
+        protected Long compute() {
+            if (toRecord - fromRecord > CHUNK_RECORDS) {
+                final long middle = (fromRecord + toRecord) >>> 1;
+                final ChunkTask left = new ChunkTask(channel, monitor, fromRecord, middle, format);
+                left.fork();
+                final long right = new ChunkTask(channel, monitor, middle, toRecord, format).compute();
+                return left.join() + right;
+            }
+            return parse();
+        }
+
+        private long parse() {
+            final long position = fromRecord * format.recordLength();
+            final int length = (int) ((toRecord - fromRecord) * format.recordLength());
+            try {
+                final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                for (int offset = 0; offset < length; offset += format.recordLength()) {
+                    final int code = format.read(chunk, offset);
+                    if (code < 0) {
+                        throw new IllegalStateException("corrupt record at offset " + (position + offset));
+                    }
+                    monitor.restore(code);
+                }
+                return toRecord - fromRecord;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
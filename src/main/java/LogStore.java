@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+/**
+ * Destination of the records written by the single log writer, see {@link LogLayout} for the layouts on disk
+ */
+interface LogStore {
+
+    /**
+     * appends every remaining byte of records, made of whole records only
+     */
+    void write(ByteBuffer records) throws IOException;
+
+    /**
+     * @return bytes appended over the life of the log, the offset snapshots refer to
+     */
+    long size() throws IOException;
+
+    /**
+     * @return encoding of the records
+     */
+    LogFormat format();
+
+    /**
+     * forces every record written so far to the storage device
+     */
+    void force() throws IOException;
+
+    /**
+     * restores codes written by a previous run into monitor, dropping a partial last record left by a crash
+     * @param fromOffset log offset to start from, codes before it are already in monitor
+     * @return number of records recovered
+     */
+    long recover(Monitor monitor, long fromOffset);
+
+    /**
+     * streams codes written so far in log order through read channels of its own, so the writer goes on
+     * meanwhile; records appended after the scan started are left out
+     * @return number of codes streamed
+     */
+    long scan(IntConsumer codes) throws IOException;
+
+    void close() throws IOException;
+}
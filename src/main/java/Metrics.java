@@ -0,0 +1,400 @@
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation of ingestion and persistence: latency histograms of parsing, staging buffer wait and log
+ * writes, connection counters and per connection rates, dedup set size and memory, codes and busy time of each
+ * pipeline stage with occupancy of the rings between them, to tell which stage is the bottleneck, duplicates
+ * dropped by the front filter and codes exchanged with the other nodes of a cluster.
+ * Recording allocates nothing; values are exposed through JMX and as plain text by {@link MetricsEndpoint},
+ * the Monitor report is left as it is
+ */
+public final class Metrics implements MetricsMBean {
+
+    public static final String OBJECT_NAME = "conmuncher:type=Metrics";
+
+    private final Monitor monitor;
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+    private final LatencyHistogram force = new LatencyHistogram();
+    private final StripedCounter codesReceived = new StripedCounter();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+    private final StripedCounter dedupCodes = new StripedCounter();
+    private final StripedCounter dedupBusyNanos = new StripedCounter();
+    private final StripedCounter loggedCodes = new StripedCounter();
+    private final StripedCounter writerBusyNanos = new StripedCounter();
+    private final StripedCounter prefilterCodes = new StripedCounter();
+    private final StripedCounter prefilterHits = new StripedCounter();
+    private final StripedCounter forwardedCodes = new StripedCounter();
+    private final StripedCounter forwardLostCodes = new StripedCounter();
+    private final StripedCounter peerCodes = new StripedCounter();
+    private volatile DedupStage dedupStage;
+    private volatile ObjectName objectName;
+
+    Metrics(final Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    void connected(final ClientConnection connection) {
+        if (connections.add(connection)) {
+            activeConnections.incrementAndGet();
+        }
+    }
+
+    void disconnected(final ClientConnection connection) {
+        if (connections.remove(connection)) {
+            activeConnections.decrementAndGet();
+        }
+    }
+
+    void rejected() {
+        rejectedConnections.incrementAndGet();
+    }
+
+    /**
+     * @param nanos time taken to parse one read buffer
+     * @param codes codes found in it
+     */
+    void parsed(final ClientConnection connection, final long nanos, final int codes) {
+        parse.record(nanos);
+        codesReceived.add(codes);
+        connection.received(codes);
+    }
+
+    /**
+     * @param nanos time a batch waited in the staging buffer
+     */
+    void queueWait(final long nanos) {
+        queueWait.record(nanos);
+    }
+
+    /**
+     * @param nanos time taken to write the log buffer
+     */
+    void written(final long nanos) {
+        write.record(nanos);
+    }
+
+    /**
+     * @param nanos time taken to force written codes to disk
+     */
+    void forced(final long nanos) {
+        force.record(nanos);
+    }
+
+    /**
+     * @param codes codes a dedup thread received in one batch
+     * @param nanos time taken to tell unique ones apart
+     */
+    void deduplicated(final int codes, final long nanos) {
+        dedupCodes.add(codes);
+        dedupBusyNanos.add(nanos);
+    }
+
+    /**
+     * @param codes unique codes the writer gathered from one batch
+     * @param nanos time taken, buffer writes included
+     */
+    void logged(final int codes, final long nanos) {
+        loggedCodes.add(codes);
+        writerBusyNanos.add(nanos);
+    }
+
+    /**
+     * @param codes codes of a batch checked by the front filter
+     * @param hits  duplicates it dropped, they skip the staging buffer and the dedup stage
+     */
+    void prefiltered(final int codes, final int hits) {
+        prefilterCodes.add(codes);
+        prefilterHits.add(hits);
+    }
+
+    /**
+     * @param codes codes forwarded to the cluster node owning them
+     */
+    void forwarded(final int codes) {
+        forwardedCodes.add(codes);
+    }
+
+    /**
+     * @param codes codes dropped on their way to a cluster node that was down or did not take them in time
+     */
+    void forwardLost(final long codes) {
+        forwardLostCodes.add(codes);
+    }
+
+    /**
+     * @param codes codes another cluster node forwarded to this one
+     */
+    void peerReceived(final int codes) {
+        peerCodes.add(codes);
+    }
+
+    /**
+     * reports occupancy of the rings between the dedup stage and the writer
+     */
+    void watch(final DedupStage dedupStage) {
+        this.dedupStage = dedupStage;
+    }
+
+    /**
+     * registers the platform MBean, named after the client port when another server of the same JVM
+     * registered first
+     */
+    void register(final int port) {
+        try {
+            try {
+                objectName = ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(this, new ObjectName(OBJECT_NAME)).getObjectName();
+            } catch (InstanceAlreadyExistsException e) {
+                objectName = ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(this, new ObjectName(OBJECT_NAME + ",port=" + port)).getObjectName();
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return every metric in plain text, one "name value" line each
+     */
+    String scrape() {
+        final StringBuilder text = new StringBuilder();
+        line(text, "conmuncher_unique_total", getUniqueTotal());
+        line(text, "conmuncher_dedup_memory_bytes", getDedupMemoryBytes());
+        line(text, "conmuncher_codes_received_total", getCodesReceived());
+        line(text, "conmuncher_staged_codes", getStagedCodes());
+        line(text, "conmuncher_active_connections", getActiveConnections());
+        line(text, "conmuncher_rejected_connections_total", getRejectedConnections());
+        histogram(text, "conmuncher_parse_nanos", parse);
+        histogram(text, "conmuncher_queue_wait_nanos", queueWait);
+        histogram(text, "conmuncher_write_nanos", write);
+        histogram(text, "conmuncher_fsync_nanos", force);
+        line(text, "conmuncher_stage_codes_total{stage=\"dedup\"}", getDedupCodes());
+        line(text, "conmuncher_stage_busy_nanos_total{stage=\"dedup\"}", getDedupBusyNanos());
+        line(text, "conmuncher_stage_codes_total{stage=\"writer\"}", getWriterCodes());
+        line(text, "conmuncher_stage_busy_nanos_total{stage=\"writer\"}", getWriterBusyNanos());
+        line(text, "conmuncher_prefilter_codes_total", getPrefilterCodes());
+        line(text, "conmuncher_prefilter_hits_total", getPrefilterHits());
+        line(text, "conmuncher_forwarded_codes_total", getForwardedCodes());
+        line(text, "conmuncher_forward_lost_codes_total", getForwardLostCodes());
+        line(text, "conmuncher_peer_codes_total", getPeerCodes());
+        final DedupStage stage = this.dedupStage;
+        if (stage != null) {
+            final SpscRing<IntBatch>[] rings = stage.rings();
+            for (int i = 0; i < rings.length; i++) {
+                line(text, "conmuncher_ring_batches{ring=\"" + i + "\"}", rings[i].size());
+                line(text, "conmuncher_ring_capacity{ring=\"" + i + "\"}", rings[i].capacity());
+            }
+        }
+        for (ClientConnection connection : connections) {
+            text.append("conmuncher_connection_codes_per_second{connection=\"").append(connection.name())
+                    .append("\"} ").append(connection.codesPerSecond()).append('\n');
+        }
+        return text.toString();
+    }
+
+    @Override
+    public long getUniqueTotal() {
+        return monitor.uniqueTotal();
+    }
+
+    @Override
+    public long getDedupMemoryBytes() {
+        return monitor.dedupMemoryBytes();
+    }
+
+    @Override
+    public long getCodesReceived() {
+        return codesReceived.sum();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    @Override
+    public String[] getConnectionRates() {
+        return connections.stream()
+                .map(connection -> connection.name() + ": " + connection.codesPerSecond() + " codes/s")
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public long getStagedCodes() {
+        return monitor.stagedCodes();
+    }
+
+    @Override
+    public long getParseCount() {
+        return parse.count();
+    }
+
+    @Override
+    public long getParseNanosP50() {
+        return parse.percentile(50);
+    }
+
+    @Override
+    public long getParseNanosP99() {
+        return parse.percentile(99);
+    }
+
+    @Override
+    public long getParseNanosMax() {
+        return parse.percentile(100);
+    }
+
+    @Override
+    public long getQueueWaitNanosP50() {
+        return queueWait.percentile(50);
+    }
+
+    @Override
+    public long getQueueWaitNanosP99() {
+        return queueWait.percentile(99);
+    }
+
+    @Override
+    public long getQueueWaitNanosMax() {
+        return queueWait.percentile(100);
+    }
+
+    @Override
+    public long getWriteNanosP50() {
+        return write.percentile(50);
+    }
+
+    @Override
+    public long getWriteNanosP99() {
+        return write.percentile(99);
+    }
+
+    @Override
+    public long getWriteNanosMax() {
+        return write.percentile(100);
+    }
+
+    @Override
+    public long getFsyncCount() {
+        return force.count();
+    }
+
+    @Override
+    public long getFsyncNanosP50() {
+        return force.percentile(50);
+    }
+
+    @Override
+    public long getFsyncNanosP99() {
+        return force.percentile(99);
+    }
+
+    @Override
+    public long getFsyncNanosMax() {
+        return force.percentile(100);
+    }
+
+    @Override
+    public long getDedupCodes() {
+        return dedupCodes.sum();
+    }
+
+    @Override
+    public long getDedupBusyNanos() {
+        return dedupBusyNanos.sum();
+    }
+
+    @Override
+    public long getWriterCodes() {
+        return loggedCodes.sum();
+    }
+
+    @Override
+    public long getWriterBusyNanos() {
+        return writerBusyNanos.sum();
+    }
+
+    @Override
+    public long getPrefilterCodes() {
+        return prefilterCodes.sum();
+    }
+
+    @Override
+    public long getPrefilterHits() {
+        return prefilterHits.sum();
+    }
+
+    @Override
+    public long getPrefilterHitPercent() {
+        final long codes = getPrefilterCodes();
+        return codes == 0 ? 0 : getPrefilterHits() * 100 / codes;
+    }
+
+    @Override
+    public long getForwardedCodes() {
+        return forwardedCodes.sum();
+    }
+
+    @Override
+    public long getForwardLostCodes() {
+        return forwardLostCodes.sum();
+    }
+
+    @Override
+    public long getPeerCodes() {
+        return peerCodes.sum();
+    }
+
+    @Override
+    public String[] getRingOccupancy() {
+        final DedupStage stage = this.dedupStage;
+        if (stage == null) {
+            return new String[0];
+        }
+        final SpscRing<IntBatch>[] rings = stage.rings();
+        final String[] occupancy = new String[rings.length];
+        for (int i = 0; i < rings.length; i++) {
+            occupancy[i] = "ring " + i + ": " + rings[i].size() + " of " + rings[i].capacity() + " batches";
+        }
+        return occupancy;
+    }
+
+    private static void line(final StringBuilder text, final String name, final long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void histogram(final StringBuilder text, final String name, final LatencyHistogram histogram) {
+        line(text, name + "_count", histogram.count());
+        line(text, name + "_mean", histogram.mean());
+        line(text, name + "{quantile=\"0.5\"}", histogram.percentile(50));
+        line(text, name + "{quantile=\"0.99\"}", histogram.percentile(99));
+        line(text, name + "{quantile=\"1\"}", histogram.percentile(100));
+    }
+}
@@ -0,0 +1,50 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Optional plain-text scrape endpoint serving {@link Metrics} on GET /metrics, bound to loopback only.
+ * Enabled by -Dconmuncher.metrics.port, 0 (default) leaves it off
+ */
+final class MetricsEndpoint {
+
+    public static final int PORT = Integer.getInteger("conmuncher.metrics.port", 0);
+
+    private final HttpServer httpServer;
+
+    private MetricsEndpoint(final HttpServer httpServer) {
+        this.httpServer = httpServer;
+    }
+
+    /**
+     * @return running endpoint, null when no port is configured
+     */
+    static MetricsEndpoint start(final int port, final Metrics metrics) {
+        if (port <= 0) {
+            return null;
+        }
+        try {
+            final HttpServer httpServer = HttpServer.create(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                final byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.start();
+            return new MetricsEndpoint(httpServer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void stop() {
+        httpServer.stop(0);
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * JMX view of {@link Metrics}, latencies are in nanoseconds
+ */
+public interface MetricsMBean {
+
+    long getUniqueTotal();
+
+    long getDedupMemoryBytes();
+
+    long getCodesReceived();
+
+    int getActiveConnections();
+
+    long getRejectedConnections();
+
+    String[] getConnectionRates();
+
+    long getStagedCodes();
+
+    long getParseCount();
+
+    long getParseNanosP50();
+
+    long getParseNanosP99();
+
+    long getParseNanosMax();
+
+    long getQueueWaitNanosP50();
+
+    long getQueueWaitNanosP99();
+
+    long getQueueWaitNanosMax();
+
+    long getWriteNanosP50();
+
+    long getWriteNanosP99();
+
+    long getWriteNanosMax();
+
+    long getFsyncCount();
+
+    long getFsyncNanosP50();
+
+    long getFsyncNanosP99();
+
+    long getFsyncNanosMax();
+
+    long getDedupCodes();
+
+    long getDedupBusyNanos();
+
+    long getWriterCodes();
+
+    long getWriterBusyNanos();
+
+    long getPrefilterCodes();
+
+    long getPrefilterHits();
+
+    long getPrefilterHitPercent();
+
+    long getForwardedCodes();
+
+    long getForwardLostCodes();
+
+    long getPeerCodes();
+
+    String[] getRingOccupancy();
+}
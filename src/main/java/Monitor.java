@@ -1,49 +1,200 @@
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.LongBuffer;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
 
 /**
- * Monitor object is responsible for atomically incrementing counters used by report statements
+ * Monitor object is responsible for atomically incrementing counters used by report statements.
+ * Unique codes are tracked in a lock-free {@link CodeBitmap} sharded in pages by code value, per run counters
+ * are striped by thread and only combined by the report, so adding a code takes no lock and allocates nothing.
+ * Reports are taken on schedule and printed by a separate thread, so a slow stdout delays neither counting
+ * nor the next report
  */
 public final class Monitor {
 
+    static final long REPORT_SECONDS = Long.getLong("conmuncher.report.seconds", 10);
+
     private final ScheduledExecutorService reportExecutor =
             Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService reportWriter = Executors.newSingleThreadExecutor();
 
-    private final Set<Integer> uniqueCodes = Collections.synchronizedSet(new HashSet<>());
-    private final AtomicInteger repeatedCodesPerRun = new AtomicInteger();
-    private final AtomicInteger uniqueCodesPerRun = new AtomicInteger();
+    private final CodeBitmap uniqueCodes = new CodeBitmap();
+    private final StripedCounter repeatedCodesPerRun = new StripedCounter();
+    private final StripedCounter uniqueCodesPerRun = new StripedCounter();
+    private volatile StagingBuffer stagingBuffer;
+    private volatile LongSupplier clusterTotal;
+    private final Metrics metrics = new Metrics(this);
 
     public Monitor() {
-        reportExecutor.scheduleAtFixedRate(this::printReport,
-                10, 10, TimeUnit.SECONDS);
+        this(REPORT_SECONDS);
     }
 
-    public synchronized boolean add(int code) {
+    /**
+     * @param reportSeconds time between printed reports, 0 prints none
+     */
+    public Monitor(final long reportSeconds) {
+        if (reportSeconds > 0) {
+            reportExecutor.scheduleAtFixedRate(this::writeReport,
+                    reportSeconds, reportSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean add(int code) {
         if (uniqueCodes.add(code)) {
-            uniqueCodesPerRun.incrementAndGet();
+            uniqueCodesPerRun.increment();
             return true;
         } else {
-            repeatedCodesPerRun.incrementAndGet();
+            repeatedCodesPerRun.increment();
             return false;
         }
     }
 
-    public synchronized void printReport() {
-        System.out.printf("Received %d unique numbers, %d duplicates. Unique total: %d%n",
-                uniqueCodesPerRun.intValue(), repeatedCodesPerRun.intValue(), uniqueCodes.size());
-        uniqueCodesPerRun.set(0);
-        repeatedCodesPerRun.set(0);
+    /**
+     * counts duplicates found before they reached this monitor
+     */
+    void countDuplicates(final int codes) {
+        repeatedCodesPerRun.add(codes);
+    }
+
+    /**
+     * marks code as seen without counting it in the current run, used to rebuild state of a previous run
+     * @return true when code was not seen before
+     */
+    public boolean restore(final int code) {
+        return uniqueCodes.add(code);
+    }
+
+    /**
+     * copies unique codes seen so far, page by page, for a snapshot
+     * @return number of pages copied
+     */
+    int copyUniqueCodes(final long[][] image) {
+        return uniqueCodes.copyTo(image);
+    }
+
+    /**
+     * marks codes of a snapshot page as seen without counting them in the current run
+     */
+    void restorePage(final int index, final LongBuffer words) {
+        uniqueCodes.load(index, words);
+    }
+
+    /**
+     * @return true when code has been seen
+     */
+    public boolean contains(final int code) {
+        return uniqueCodes.contains(code);
+    }
+
+    /**
+     * calls consumer with every unique code seen between from and to, both included, in ascending order
+     * @return number of codes found
+     */
+    public long forEachUnique(final int from, final int to, final IntConsumer consumer) {
+        return uniqueCodes.forEach(from, to, consumer);
+    }
+
+    /**
+     * @return number of unique codes seen between from and to, both included
+     */
+    public long countUnique(final int from, final int to) {
+        return uniqueCodes.count(from, to);
+    }
+
+    /**
+     * @return number of unique codes seen
+     */
+    public long uniqueTotal() {
+        return uniqueCodes.size();
+    }
+
+    /**
+     * @return heap bytes held by the unique codes set
+     */
+    public long dedupMemoryBytes() {
+        return uniqueCodes.allocatedBytes();
+    }
+
+    /**
+     * @return codes waiting in the watched staging buffer
+     */
+    public long stagedCodes() {
+        final StagingBuffer staging = this.stagingBuffer;
+        return staging == null ? 0 : staging.size();
+    }
+
+    /**
+     * @return instrumentation of ingestion and persistence paths feeding this monitor
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * reports fill level of the staging buffer, when codes are waiting in it
+     * @param stagingBuffer buffer between ingestion and the log writer
+     */
+    void watch(final StagingBuffer stagingBuffer) {
+        this.stagingBuffer = stagingBuffer;
+    }
+
+    /**
+     * adds the unique total of the whole cluster to reports and stats
+     * @param clusterTotal unique codes of every node, must not block
+     */
+    void watchCluster(final LongSupplier clusterTotal) {
+        this.clusterTotal = clusterTotal;
+    }
+
+    /**
+     * prints and resets per run counters, each code added is reported exactly once:
+     * codes added while the counters are reset are carried to the next report
+     */
+    public void printReport() {
+        System.out.print(takeReport());
+    }
+
+    /**
+     * @return current totals, per run counters are left for the next report
+     */
+    public String stats() {
+        return String.format("Unique total: %d, %d unique numbers and %d duplicates since last report, %d codes staged%n",
+                uniqueCodes.size(), uniqueCodesPerRun.sum(), repeatedCodesPerRun.sum(), stagedCodes())
+                + clusterReport();
+    }
+
+    private void writeReport() {
+        final String report = takeReport();
+        reportWriter.execute(() -> System.out.print(report));
+    }
+
+    private synchronized String takeReport() {
+        final long uniques = uniqueCodesPerRun.sumThenReset();
+        final long duplicates = repeatedCodesPerRun.sumThenReset();
+        final StringBuilder report = new StringBuilder(String.format(
+                "Received %d unique numbers, %d duplicates. Unique total: %d%n", uniques, duplicates, uniqueCodes.size()));
+        final StagingBuffer staging = this.stagingBuffer;
+        if (staging != null && staging.size() > 0) {
+            report.append(String.format("Staging buffer: %d of %d codes waiting to be written%n",
+                    staging.size(), staging.capacity()));
+        }
+        return report.append(clusterReport()).toString();
+    }
+
+    private String clusterReport() {
+        final LongSupplier cluster = this.clusterTotal;
+        return cluster == null ? "" : String.format("Cluster unique total: %d%n", cluster.getAsLong());
     }
 
     public void shutdown() {
         this.reportExecutor.shutdown();
         try {
             this.reportExecutor.awaitTermination(15, TimeUnit.SECONDS);
+            this.reportWriter.shutdown();
+            this.reportWriter.awaitTermination(15, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             throw new IllegalStateException(e);
         }
@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Non-blocking connection engine, a single selector thread accepts and reads every client connection.
+ * Clients beyond the connection limit are closed straight away instead of waiting for a free thread.
+ * A connection paused by a full staging buffer is not read, so TCP flow control slows its client down,
+ * and it is retried every millisecond until its pending batch is taken.
+ * Selection waits no longer than the earliest deadline of codes held by a {@link BatchCoalescer}, expired
+ * connections are processed again so their codes are persisted; at end of stream held codes are persisted
+ * before the connection is closed. Once closed, the loop hands every open connection to the buffer handler one
+ * last time before closing it
+ */
+final class NioConnectionEngine {
+
+    private static final long PAUSE_RETRY_MILLIS = 1;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final int maxConnections;
+    private final int readBufferSize;
+    private final int batchSize;
+    private final long coalesceMicros;
+    private final Predicate<ClientConnection> bufferHandler;
+    private final Metrics metrics;
+    private final Set<SelectionKey> pausedKeys = new HashSet<>();
+    private final Set<SelectionKey> heldKeys = new HashSet<>();
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private volatile boolean running = true;
+    private int activeConnections;
+
+    /**
+     * @param port          port to bind, 0 for an ephemeral one
+     * @param maxConnections connections served at the same time
+     * @param bufferHandler parses bytes read into a connection buffer,
+     *                      returns false when the connection must be closed
+     * @param metrics       records connections accepted, closed and rejected
+     */
+    NioConnectionEngine(final int port, final int maxConnections, final int readBufferSize, final int batchSize,
+                        final long coalesceMicros, final Predicate<ClientConnection> bufferHandler,
+                        final Metrics metrics) {
+        this.maxConnections = maxConnections;
+        this.readBufferSize = readBufferSize;
+        this.batchSize = batchSize;
+        this.coalesceMicros = coalesceMicros;
+        this.bufferHandler = bufferHandler;
+        this.metrics = metrics;
+        try {
+            this.selector = Selector.open();
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.bind(new InetSocketAddress(port));
+            this.serverChannel.configureBlocking(false);
+            this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return bound port
+     */
+    int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * runs the event loop on the calling thread until close is called
+     */
+    void run() {
+        try {
+            while (running) {
+                final long timeout = selectTimeout();
+                if (timeout == 0) {
+                    selector.select();
+                } else {
+                    selector.select(timeout);
+                    resumePaused();
+                    flushExpired();
+                }
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext() && running) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * stops the event loop, open client connections are closed by the loop thread
+     */
+    void close() {
+        this.running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * waits for the loop thread to close every connection
+     */
+    void awaitClosed(final long timeoutMillis) throws InterruptedException {
+        closed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        if (activeConnections >= maxConnections) {
+            channel.close();
+            metrics.rejected();
+            return;
+        }
+        activeConnections++;
+        channel.configureBlocking(false);
+        final ClientConnection connection = new ClientConnection(String.valueOf(channel.getRemoteAddress()),
+                ByteBuffer.allocateDirect(readBufferSize), batchSize, coalesceMicros, channel);
+        channel.register(selector, SelectionKey.OP_READ, connection);
+        metrics.connected(connection);
+    }
+
+    /**
+     * a connection paused by flushExpired may still be among the selected keys, its buffer is left
+     * for resumePaused to finish
+     */
+    private void read(final SelectionKey key) {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final ClientConnection connection = (ClientConnection) key.attachment();
+        final ByteBuffer buffer = connection.buffer();
+        if (connection.isPaused()) {
+            return;
+        }
+        try {
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                connection.coalescer().end();
+            } else {
+                buffer.flip();
+            }
+            handle(key, connection);
+        } catch (IOException e) {
+            disconnect(key);
+        }
+    }
+
+    /**
+     * @return milliseconds until a paused connection is retried or held codes expire, 0 to wait for events only
+     */
+    private long selectTimeout() {
+        long timeout = pausedKeys.isEmpty() ? 0 : PAUSE_RETRY_MILLIS;
+        final long now = System.nanoTime();
+        for (SelectionKey key : heldKeys) {
+            final long wait = Math.max(1, TimeUnit.NANOSECONDS.toMillis(
+                    ((ClientConnection) key.attachment()).coalescer().deadline() - now + 999_999));
+            timeout = timeout == 0 ? wait : Math.min(timeout, wait);
+        }
+        return timeout;
+    }
+
+    private void flushExpired() {
+        if (heldKeys.isEmpty()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final SelectionKey[] keys = heldKeys.toArray(new SelectionKey[0]);
+        for (SelectionKey key : keys) {
+            final ClientConnection connection = (ClientConnection) key.attachment();
+            if (key.isValid() && running && now - connection.coalescer().deadline() >= 0) {
+                heldKeys.remove(key);
+                handle(key, connection);
+            }
+        }
+    }
+
+    private void resumePaused() {
+        final SelectionKey[] keys = pausedKeys.toArray(new SelectionKey[0]);
+        pausedKeys.clear();
+        for (SelectionKey key : keys) {
+            if (key.isValid() && running) {
+                key.interestOps(SelectionKey.OP_READ);
+                handle(key, (ClientConnection) key.attachment());
+            }
+        }
+    }
+
+    /**
+     * a connection failing in the buffer handler is disconnected, the loop goes on serving the others
+     */
+    private void handle(final SelectionKey key, final ClientConnection connection) {
+        heldKeys.remove(key);
+        final boolean open;
+        try {
+            open = bufferHandler.test(connection);
+        } catch (RuntimeException e) {
+            System.err.printf("Closing connection %s: %s%n", connection.name(), e);
+            disconnect(key);
+            return;
+        }
+        if (!open) {
+            disconnect(key);
+        } else if (connection.isPaused()) {
+            key.interestOps(0);
+            pausedKeys.add(key);
+        } else if (connection.coalescer().isEnded()) {
+            disconnect(key);
+        } else if (connection.coalescer().isHolding()) {
+            heldKeys.add(key);
+        }
+    }
+
+    private void disconnect(final SelectionKey key) {
+        pausedKeys.remove(key);
+        heldKeys.remove(key);
+        key.cancel();
+        activeConnections--;
+        metrics.disconnected((ClientConnection) key.attachment());
+        closeChannel(key);
+    }
+
+    /**
+     * a socket failing to close is left to the operating system, the loop goes on
+     */
+    private static void closeChannel(final SelectionKey key) {
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.err.printf("Failed to close %s: %s%n", key.channel(), e);
+        }
+    }
+
+    /**
+     * bytes already read and codes held or paused by each connection go to the buffer handler once more
+     * before the connection is closed
+     */
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && key.attachment() instanceof ClientConnection) {
+                    final ClientConnection connection = (ClientConnection) key.attachment();
+                    connection.coalescer().end();
+                    try {
+                        bufferHandler.test(connection);
+                    } catch (RuntimeException e) {
+                        System.err.printf("Closing connection %s: %s%n", connection.name(), e);
+                    }
+                    metrics.disconnected(connection);
+                }
+                closeChannel(key);
+            }
+            selector.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            closed.countDown();
+        }
+    }
+}
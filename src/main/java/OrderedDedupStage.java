@@ -0,0 +1,222 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Dedup stage keeping the log order of codes deterministic: codes are written in staging buffer order, so codes
+ * of one connection keep the order they were received in, and of two equal codes the first one staged is the one
+ * written. A dispatcher thread numbers batches taken from the staging buffer and hands every batch to every worker
+ * through its own ring. Each worker owns the bitmap pages of an interleaved share of the code space and counts
+ * the codes of its share with Monitor batch after batch, in sequence order; the last worker done with a batch
+ * compacts it and hands it to the writer, which merges the workers rings back in sequence order.
+ * The dispatcher holds a read lock while it hands a batch out, the writer pauses the stage by taking the write
+ * lock and writing every batch handed out
+ */
+final class OrderedDedupStage implements DedupStage {
+
+    private static final long FULL_RING_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DROPPED = -1;
+    private static final IntPredicate KEPT = code -> code != DROPPED;
+
+    private final StagingBuffer stagingBuffer;
+    private final Monitor monitor;
+    private final IntPredicate firstSeen;
+    private final SpscRing<IntBatch>[] inputs;
+    private final SpscRing<IntBatch>[] outputs;
+    private final boolean[] stopped;
+    private final Thread dispatcher;
+    private final Thread[] workers;
+    private final Thread consumer;
+    private final StampedLock dispatching = new StampedLock();
+    private final AtomicLong dispatched = new AtomicLong();
+    private volatile boolean aborted;
+    private long pauseStamp;
+    private long nextSequence;
+    private int stoppedWorkers;
+
+    /**
+     * @param workers     dedup threads, each with its own input and output ring
+     * @param ringBatches batches a ring holds before its producer waits
+     * @param consumer    writer thread, woken up when batches are handed to it
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OrderedDedupStage(final StagingBuffer stagingBuffer, final Monitor monitor, final int workers,
+                      final int ringBatches, final Thread consumer) {
+        this.stagingBuffer = stagingBuffer;
+        this.monitor = monitor;
+        this.firstSeen = code -> monitor.add(code);
+        this.consumer = consumer;
+        this.inputs = new SpscRing[Math.max(1, workers)];
+        this.outputs = new SpscRing[inputs.length];
+        this.stopped = new boolean[inputs.length];
+        this.workers = new Thread[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            final int share = i;
+            inputs[i] = new SpscRing<>(ringBatches);
+            outputs[i] = new SpscRing<>(ringBatches);
+            this.workers[i] = new Thread(() -> dedupLoop(share), "numbers-dedup-" + i);
+        }
+        this.dispatcher = new Thread(this::dispatchLoop, "numbers-dedup-dispatcher");
+    }
+
+    @Override
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        dispatcher.start();
+    }
+
+    /**
+     * the dispatcher hands STOP to every worker, each output ring ends with STOP
+     */
+    @Override
+    public boolean stop(final long timeoutMillis) {
+        try {
+            return stagingBuffer.offer(STOP, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+        dispatcher.interrupt();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * takes the next batch in sequence, it is at the head of one of the output rings once every worker is done
+     */
+    @Override
+    public IntBatch poll() {
+        for (int i = 0; i < outputs.length; i++) {
+            if (stopped[i]) {
+                continue;
+            }
+            final IntBatch codes = outputs[i].peek();
+            if (codes == STOP) {
+                outputs[i].poll();
+                stopped[i] = true;
+                if (++stoppedWorkers == outputs.length) {
+                    return STOP;
+                }
+            } else if (codes != null && codes.sequence() == nextSequence) {
+                nextSequence++;
+                return outputs[i].poll();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true when the staging buffer is empty and every batch handed out was taken by the writer
+     */
+    @Override
+    public boolean isDrained() {
+        return stagingBuffer.size() == 0 && nextSequence == dispatched.get();
+    }
+
+    /**
+     * stops the dispatcher between two batches, then writes every batch it handed out
+     */
+    @Override
+    public void pause(final Runnable drain) throws InterruptedException {
+        while ((pauseStamp = dispatching.tryWriteLock(1, TimeUnit.MILLISECONDS)) == 0) {
+            drain.run();
+        }
+        drain.run();
+        while (nextSequence < dispatched.get()) {
+            LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+            drain.run();
+        }
+    }
+
+    @Override
+    public void resume() {
+        dispatching.unlockWrite(pauseStamp);
+    }
+
+    @Override
+    public SpscRing<IntBatch>[] rings() {
+        return outputs;
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (!aborted) {
+                final IntBatch codes = stagingBuffer.take();
+                if (codes == STOP) {
+                    for (int i = 0; i < inputs.length; i++) {
+                        publish(inputs[i], STOP, workers[i]);
+                    }
+                    return;
+                }
+                monitor.metrics().queueWait(System.nanoTime() - codes.stagedAt());
+                final long stamp = dispatching.readLock();
+                try {
+                    codes.dispatch(dispatched.get(), workers.length);
+                    for (int i = 0; i < inputs.length; i++) {
+                        publish(inputs[i], codes, workers[i]);
+                    }
+                    dispatched.incrementAndGet();
+                } finally {
+                    dispatching.unlockRead(stamp);
+                }
+            }
+        } catch (InterruptedException e) {
+            if (!aborted) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void dedupLoop(final int share) {
+        final SpscRing<IntBatch> input = inputs[share];
+        final SpscRing<IntBatch> output = outputs[share];
+        while (!aborted) {
+            final IntBatch codes = input.poll();
+            if (codes == null) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            if (codes == STOP) {
+                publish(output, STOP, consumer);
+                return;
+            }
+            final long start = System.nanoTime();
+            int counted = 0;
+            for (int i = 0; i < codes.size(); i++) {
+                final int code = codes.get(i);
+                if (code != DROPPED && (code >>> CodeBitmap.PAGE_SHIFT) % workers.length == share) {
+                    counted++;
+                    if (!firstSeen.test(code)) {
+                        codes.set(i, DROPPED);
+                    }
+                }
+            }
+            monitor.metrics().deduplicated(counted, System.nanoTime() - start);
+            if (codes.workerDone()) {
+                codes.retain(KEPT);
+                publish(output, codes, consumer);
+            }
+        }
+    }
+
+    private void publish(final SpscRing<IntBatch> ring, final IntBatch codes, final Thread consumer) {
+        while (!ring.offer(codes)) {
+            if (aborted) {
+                return;
+            }
+            LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+        }
+        LockSupport.unpark(consumer);
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection to one peer node of the {@link Cluster}. Peer protocol frames start with a count: a batch of codes
+ * is the count followed by as many 4 byte codes, a count of TOTAL_REQUEST asks for the peer unique total,
+ * answered with 8 bytes.
+ * Batches to forward wait on a bounded queue drained by a sender thread of the link, connection threads and the
+ * selector never write to the peer themselves: forward blocks while the queue is full, nio connections pause.
+ * The sender connects on first use and waits for a peer still starting up. Once a peer goes away, batches
+ * are dropped and counted as lost codes while the sender reconnects at most every second.
+ * Every 100 ms the sender also refreshes the peer unique total reported by stats lines
+ */
+final class PeerLink {
+
+    static final int TOTAL_REQUEST = -1;
+    static final int QUEUE_BATCHES = Integer.getInteger("conmuncher.cluster.queue.batches", 64);
+
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long CONNECT_RETRY_MILLIS = 100;
+    private static final long RECONNECT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long TOTAL_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final InetSocketAddress address;
+    private final Metrics metrics;
+    private final BlockingQueue<IntBatch> pending;
+    private final BlockingQueue<IntBatch> free;
+    private final ByteBuffer frame;
+    private final ByteBuffer total = ByteBuffer.allocate(Long.BYTES);
+    private final Thread sender;
+
+    private volatile SocketChannel channel;
+    private volatile boolean closing;
+    private volatile boolean stopped;
+    private volatile long peerTotal;
+    private boolean connectedOnce;
+    private boolean down;
+    private long reconnectAt;
+    private long refreshAt;
+    private long lostWhileDown;
+
+    /**
+     * @param batchSize codes sent in one frame at most
+     * @param metrics   records codes forwarded and codes lost
+     */
+    PeerLink(final InetSocketAddress address, final int batchSize, final Metrics metrics, final String name) {
+        this.address = address;
+        this.metrics = metrics;
+        this.pending = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        this.free = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        for (int i = 0; i < QUEUE_BATCHES; i++) {
+            free.add(new IntBatch(batchSize));
+        }
+        this.frame = ByteBuffer.allocateDirect(Integer.BYTES * (1 + batchSize));
+        this.reconnectAt = System.nanoTime();
+        this.refreshAt = reconnectAt;
+        this.sender = new Thread(this::sendLoop, name);
+        this.sender.start();
+    }
+
+    /**
+     * queues codes for the sender, blocks while the queue is full
+     * @param codes codes owned by the link from now on
+     * @return empty batch taking the place of codes
+     */
+    IntBatch forward(final IntBatch codes) {
+        try {
+            IntBatch empty = null;
+            while (!stopped && (empty = free.poll(CONNECT_RETRY_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                // the sender frees a batch once it is written or dropped
+            }
+            if (empty == null) {
+                metrics.forwardLost(codes.size());
+                codes.clear();
+                return codes;
+            }
+            pending.put(codes);
+            return empty;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true when forward takes a batch without blocking
+     */
+    boolean hasRoom() {
+        return !free.isEmpty();
+    }
+
+    /**
+     * @return unique codes seen by the peer, as it last reported them
+     */
+    long peerTotal() {
+        return peerTotal;
+    }
+
+    /**
+     * lets the sender forward queued batches, once the timeout elapsed the link is closed and batches left are lost
+     * @return codes lost when the link closed
+     */
+    long close(final long timeoutMillis) {
+        closing = true;
+        try {
+            sender.join(Math.max(1, timeoutMillis));
+            stopped = true;
+            if (sender.isAlive()) {
+                closeChannel();
+                sender.interrupt();
+                sender.join(TimeUnit.SECONDS.toMillis(1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        long left = 0;
+        IntBatch codes;
+        while ((codes = pending.poll()) != null) {
+            left += codes.size();
+        }
+        metrics.forwardLost(left);
+        return left;
+    }
+
+    private void sendLoop() {
+        try {
+            while (!stopped) {
+                final IntBatch codes = pending.poll(CONNECT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                if (codes != null) {
+                    send(codes);
+                    codes.clear();
+                    free.add(codes);
+                } else if (closing) {
+                    return;
+                }
+                if (!closing && System.nanoTime() - refreshAt >= 0) {
+                    refreshTotal();
+                    refreshAt = System.nanoTime() + TOTAL_REFRESH_NANOS;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped by close
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private void send(final IntBatch codes) {
+        final SocketChannel peer = connect();
+        if (peer == null) {
+            lost(codes.size());
+            return;
+        }
+        frame.clear();
+        frame.putInt(codes.size());
+        for (int i = 0; i < codes.size(); i++) {
+            frame.putInt(codes.get(i));
+        }
+        try {
+            write(peer);
+            metrics.forwarded(codes.size());
+        } catch (IOException e) {
+            disconnected(e);
+            lost(codes.size());
+        }
+    }
+
+    private void refreshTotal() {
+        final SocketChannel peer = connect();
+        if (peer == null) {
+            return;
+        }
+        frame.clear();
+        frame.putInt(TOTAL_REQUEST);
+        try {
+            write(peer);
+            total.clear();
+            while (total.hasRemaining()) {
+                if (peer.read(total) < 0) {
+                    throw new EOFException("cluster peer " + address + " closed the link");
+                }
+            }
+            peerTotal = total.getLong(0);
+        } catch (IOException e) {
+            disconnected(e);
+        }
+    }
+
+    private void write(final SocketChannel peer) throws IOException {
+        frame.flip();
+        while (frame.hasRemaining()) {
+            peer.write(frame);
+        }
+    }
+
+    /**
+     * opens the channel, retrying for a peer still starting up on first use, once afterwards
+     * @return null while the peer is down
+     */
+    private SocketChannel connect() {
+        final SocketChannel open = channel;
+        if (open != null) {
+            return open;
+        }
+        if (System.nanoTime() - reconnectAt < 0) {
+            return null;
+        }
+        final long deadline = System.nanoTime() + (connectedOnce ? 0 : CONNECT_TIMEOUT_NANOS);
+        while (true) {
+            try {
+                final SocketChannel opened = SocketChannel.open(address);
+                opened.socket().setTcpNoDelay(true);
+                channel = opened;
+                connectedOnce = true;
+                if (down) {
+                    down = false;
+                    System.err.printf("Cluster peer %s is back, %d forwarded codes were lost%n", address, lostWhileDown);
+                }
+                return opened;
+            } catch (IOException e) {
+                if (closing || System.nanoTime() - deadline >= 0) {
+                    connectedOnce = true;
+                    reconnectAt = System.nanoTime() + RECONNECT_NANOS;
+                    wentDown(e);
+                    return null;
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(CONNECT_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * the next batch tries to reconnect straight away
+     */
+    private void disconnected(final IOException e) {
+        closeChannel();
+        reconnectAt = System.nanoTime();
+        wentDown(e);
+    }
+
+    private void wentDown(final IOException e) {
+        if (!down) {
+            down = true;
+            lostWhileDown = 0;
+            System.err.printf("Cluster peer %s is down, codes forwarded to it are lost until it is back: %s%n",
+                    address, e);
+        }
+    }
+
+    private void lost(final int codes) {
+        lostWhileDown += codes;
+        metrics.forwardLost(codes);
+    }
+
+    private void closeChannel() {
+        final SocketChannel open = channel;
+        channel = null;
+        if (open != null) {
+            try {
+                open.close();
+            } catch (IOException ignored) {
+                // the peer is gone either way
+            }
+        }
+    }
+}
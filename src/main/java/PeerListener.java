@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Takes codes forwarded by the other nodes of the {@link Cluster}, one reader thread per peer, and answers
+ * their unique total requests. A peer going away ends its reader only. See {@link PeerLink} for the frames
+ */
+final class PeerListener {
+
+    private static final long INTERRUPT_JOIN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final ServerSocketChannel serverChannel;
+    private final int batchSize;
+    private final Consumer<IntBatch> sink;
+    private final Monitor monitor;
+    private final Thread acceptor;
+    private final List<SocketChannel> peers = new CopyOnWriteArrayList<>();
+    private final List<Thread> readers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param address   peer address of this node
+     * @param batchSize codes in one frame at most
+     * @param sink      persists forwarded codes, the batch is reused once it returns
+     */
+    PeerListener(final InetSocketAddress address, final int batchSize, final Consumer<IntBatch> sink,
+                 final Monitor monitor) {
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.monitor = monitor;
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.bind(address);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.acceptor = new Thread(this::acceptLoop, "cluster-peer-acceptor");
+        this.acceptor.start();
+    }
+
+    /**
+     * stops accepting peers and closes their connections, codes they had not sent yet are lost.
+     * Readers still persisting codes when the timeout elapsed are interrupted
+     * @param timeoutMillis time readers have to hand over the codes they read
+     */
+    void close(final long timeoutMillis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        running = false;
+        try {
+            serverChannel.close();
+            acceptor.join(remainingMillis(deadline));
+            for (SocketChannel peer : peers) {
+                closeChannel(peer);
+            }
+            for (Thread reader : readers) {
+                reader.join(remainingMillis(deadline));
+            }
+            for (Thread reader : readers) {
+                if (reader.isAlive()) {
+                    reader.interrupt();
+                    reader.join(INTERRUPT_JOIN_MILLIS);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long remainingMillis(final long deadline) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * a peer accepted once close started is closed straight away
+     */
+    private void acceptLoop() {
+        try {
+            while (running) {
+                final SocketChannel peer = serverChannel.accept();
+                if (!running) {
+                    closeChannel(peer);
+                    return;
+                }
+                peers.add(peer);
+                final Thread reader = new Thread(() -> readLoop(peer), "cluster-peer-" + peer.getRemoteAddress());
+                readers.add(reader);
+                reader.start();
+            }
+        } catch (ClosedChannelException e) {
+            // closed by close
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void readLoop(final SocketChannel peer) {
+        final ByteBuffer count = ByteBuffer.allocate(Integer.BYTES);
+        final ByteBuffer codes = ByteBuffer.allocateDirect(Integer.BYTES * batchSize);
+        final ByteBuffer total = ByteBuffer.allocate(Long.BYTES);
+        final IntBatch batch = new IntBatch(batchSize);
+        try {
+            while (readFully(peer, count)) {
+                final int size = count.getInt(0);
+                if (size == PeerLink.TOTAL_REQUEST) {
+                    total.clear();
+                    total.putLong(0, monitor.uniqueTotal());
+                    while (total.hasRemaining()) {
+                        peer.write(total);
+                    }
+                    continue;
+                }
+                if (size < 0 || size > batchSize) {
+                    throw new IllegalStateException("invalid frame of " + size + " codes from cluster peer");
+                }
+                codes.clear().limit(size * Integer.BYTES);
+                if (!readFully(peer, codes)) {
+                    return;
+                }
+                batch.clear();
+                for (int i = 0; i < size; i++) {
+                    batch.add(codes.getInt(i * Integer.BYTES));
+                }
+                sink.accept(batch);
+                monitor.metrics().peerReceived(size);
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.printf("Cluster peer link closed: %s%n", e);
+            }
+        } catch (IllegalStateException e) {
+            if (running) {
+                throw e;
+            }
+            System.err.printf("Cluster peer reader stopped by shutdown, codes it held are lost: %s%n", e);
+        } finally {
+            peers.remove(peer);
+            closeChannel(peer);
+        }
+    }
+
+    private static void closeChannel(final SocketChannel peer) {
+        try {
+            peer.close();
+        } catch (IOException ignored) {
+            // the peer is gone either way
+        }
+    }
+
+    /**
+     * @return false when the peer closed the connection
+     */
+    private static boolean readFully(final SocketChannel peer, final ByteBuffer buffer) throws IOException {
+        buffer.position(0);
+        while (buffer.hasRemaining()) {
+            if (peer.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
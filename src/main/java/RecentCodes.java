@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Optional front filter for duplicate heavy traffic: a direct mapped cache of codes received recently, shared by
+ * every connection and checked right after parsing. A code found in it was received before, so it is counted as a
+ * duplicate straight away and does not go through the staging buffer and the dedup stage; the first occurrence is
+ * already on its way to Monitor, which counts it as unique. A code evicted by a colliding one just takes the exact
+ * path again, counts stay exact, only the share of duplicates caught depends on the cache size.
+ * Enabled with conmuncher.prefilter.slots, number of cached codes rounded up to a power of two
+ */
+final class RecentCodes implements IntPredicate {
+
+    static final int SLOTS = Integer.getInteger("conmuncher.prefilter.slots", 0);
+
+    private static final int EMPTY = -1;
+
+    private final AtomicIntegerArray slots;
+    private final int shift;
+
+    /**
+     * @param capacity codes cached, rounded up to a power of two
+     */
+    RecentCodes(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicIntegerArray(size);
+        this.shift = Integer.numberOfLeadingZeros(size) + 1;
+        for (int i = 0; i < size; i++) {
+            slots.lazySet(i, EMPTY);
+        }
+    }
+
+    /**
+     * @param slots codes cached, conmuncher.prefilter.slots by default
+     * @return filter caching slots codes, null when slots is 0 and the filter is disabled
+     */
+    static RecentCodes create(final int slots) {
+        return slots > 0 ? new RecentCodes(slots) : null;
+    }
+
+    /**
+     * drops the codes of a freshly parsed batch received before and counts them as duplicates,
+     * a batch must go through it only once
+     */
+    void filter(final IntBatch batch, final Monitor monitor) {
+        final int received = batch.size();
+        batch.retain(this);
+        final int hits = received - batch.size();
+        monitor.countDuplicates(hits);
+        monitor.metrics().prefiltered(received, hits);
+    }
+
+    /**
+     * @return false when code is cached, true after caching it
+     */
+    @Override
+    public boolean test(final int code) {
+        final int slot = (code * 0x9E3779B9) >>> shift;
+        if (slots.get(slot) == code) {
+            return false;
+        }
+        slots.lazySet(slot, code);
+        return true;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -1,14 +1,8 @@
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -18,28 +12,83 @@ import java.util.regex.Pattern;
 public class Repository {
 
     public static final String NUMBERS_LOG = "numbers.log";
-    private final Path path = Paths.get(NUMBERS_LOG);
-    private final Pattern pattern = Pattern.compile("[0-9]+");
-    private final ExecutorService persistExecutor =
-            Executors.newFixedThreadPool(8);
+    public static final String NUMBERS_BIN = "numbers.bin";
+    public static final int STAGING_CAPACITY = Integer.getInteger("conmuncher.staging.codes", 1 << 20);
+    public static final int DEDUP_THREADS = Integer.getInteger("conmuncher.dedup.threads", 1);
+    public static final boolean ORDERED_DEDUP = Boolean.getBoolean("conmuncher.dedup.ordered");
+    public static final int RING_BATCHES = Integer.getInteger("conmuncher.ring.batches", 64);
+    public static final int FLUSH_BYTES = Integer.getInteger("conmuncher.flush.bytes", 1 << 20);
+    public static final long FLUSH_MILLIS = Long.getLong("conmuncher.flush.millis", 100);
+    public static final boolean RESUME = Boolean.getBoolean("conmuncher.resume");
+    public static final long SNAPSHOT_SECONDS = Long.getLong("conmuncher.snapshot.seconds", 60);
+    public static final Durability DURABILITY = Durability.fromSystemProperty();
+    public static final long FSYNC_MILLIS = Long.getLong("conmuncher.fsync.millis", 1000);
+    public static final LogLayout LOG_LAYOUT = LogLayout.fromSystemProperty();
+    public static final int SEGMENT_BYTES = Integer.getInteger("conmuncher.segment.bytes", 64 << 20);
+    public static final LogFormat LOG_FORMAT = LogFormat.fromSystemProperty();
 
-    private final Monitor monitor;
+    private static final Pattern PATTERN = Pattern.compile("[0-9]+");
+
+    private final SnapshotStore snapshots;
+
+    private final AppendLog appendLog;
+    private final CodeQuery query;
 
     /**
-     * removes numbers.log file and re-recreates on new instantiations
-     * @param monitor
+     * removes numbers.log file and re-recreates on new instantiations,
+     * in resume mode codes of the existing file are restored into monitor instead.
+     * Snapshots of monitor codes are taken every conmuncher.snapshot.seconds in either mode, so the next resume
+     * only replays the log tail.
+     * With the segmented log layout the same applies to numbers log segments,
+     * with the binary log format to numbers.bin
+     * @param monitor counts codes and tells unique ones apart, required
      */
     public Repository(final Monitor monitor) {
-        cleanUp();
-        this.monitor = monitor;
+        this(monitor, ServerConfig.fromSystemProperties());
+    }
+
+    /**
+     * same as above with the log directory, layout, format and pipeline settings of config
+     */
+    public Repository(final Monitor monitor, final ServerConfig config) {
+        if (monitor == null) {
+            throw new IllegalArgumentException("repository needs a monitor");
+        }
+        final Path directory = config.directory();
+        this.snapshots = new SnapshotStore(directory.resolve(SnapshotStore.NUMBERS_SNAPSHOT));
+        if (!config.resume()) {
+            cleanUp(directory, config.logLayout(), config.logFormat());
+        }
+        final LogStore store = config.logLayout() == LogLayout.SEGMENTED
+                ? new SegmentedLogStore(directory, config.segmentBytes(), config.logFormat())
+                : new FileLogStore(directory.resolve(numbersLog(config.logFormat())), config.logFormat());
+        if (config.resume()) {
+            resume(store, monitor);
+        }
+        this.appendLog = new AppendLog(store, monitor, config.stagingCodes(), config.dedupThreads(),
+                config.orderedDedup(), config.ringBatches(), config.batchSize(), config.flushBytes(),
+                config.flushMillis(), config.durability(), config.fsyncMillis(),
+                config.snapshotSeconds() > 0 ? snapshots : null,
+                TimeUnit.SECONDS.toMillis(config.snapshotSeconds()));
+        this.query = new CodeQuery(monitor, store);
+        monitor.watch(appendLog.stagingBuffer());
+        monitor.metrics().watch(appendLog.dedupStage());
     }
 
     /**
-     * removes numbers.log file and re-recreates
+     * removes numbers.log file and re-recreates, snapshot of a previous run is removed.
+     * With the segmented log layout segments and their index are removed instead,
+     * a numbers log left in the other format is removed as well
      */
-    static void cleanUp() {
+    static void cleanUp(final Path directory, final LogLayout layout, final LogFormat format) {
+        SnapshotStore.cleanUp(directory.resolve(SnapshotStore.NUMBERS_SNAPSHOT));
+        if (layout == LogLayout.SEGMENTED) {
+            SegmentedLogStore.cleanUp(directory);
+            return;
+        }
         try {
-            File numbersLog = new File(NUMBERS_LOG);
+            Files.deleteIfExists(directory.resolve(format == LogFormat.TEXT ? NUMBERS_BIN : NUMBERS_LOG));
+            File numbersLog = directory.resolve(numbersLog(format)).toFile();
             if (numbersLog.exists()) {
                 if (!numbersLog.delete()) {
                     throw new IllegalStateException("could not delete number.log");
@@ -54,14 +103,46 @@ public class Repository {
     }
 
     /**
-     * validates is list of codes has 9 numeric digits
+     * @return numbers log file name in format
+     */
+    static String numbersLog(final LogFormat format) {
+        return format == LogFormat.TEXT ? NUMBERS_LOG : NUMBERS_BIN;
+    }
+
+    /**
+     * rebuilds monitor dedup state of a previous run and reports time taken,
+     * codes come from the last snapshot and from the numbers log tail past the snapshot offset
+     */
+    private void resume(final LogStore store, final Monitor monitor) {
+        final long start = System.nanoTime();
+        final long snapshotOffset;
+        try {
+            snapshotOffset = snapshots.load(monitor, store.size());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        final long records = store.recover(monitor, snapshotOffset);
+        System.out.printf("Recovered %d codes from %s in %d ms, %d records replayed past snapshot offset %d%n",
+                monitor.uniqueTotal(), store, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                records, snapshotOffset);
+    }
+
+    /**
+     * @return queries over unique codes, answered while codes keep being saved
+     */
+    public CodeQuery query() {
+        return query;
+    }
+
+    /**
+     * validates is list of codes has 9 numeric digits, no repository has to be opened for it
      * @param content List of codes
      * @return true is request is invalid, false when request is valid
      */
-    public boolean isRequestInvalid(final List<String> content) {
+    public static boolean isRequestInvalid(final List<String> content) {
         return content.stream().anyMatch(code -> {
             if (code != null) {
-                return !pattern.matcher(code).matches() || code.length() != 9;
+                return !PATTERN.matcher(code).matches() || code.length() != 9;
             } else {
                 return true;
             }
@@ -69,37 +150,60 @@ public class Repository {
     }
 
     /**
-     * This method persists list of codes to numbers log file. Monitor and nio files operations are
-     * added to thread pool for performance reasons. Monitor operations are synchronized and should be
-     * detached from receiving connection responsibilities
+     * persists list of validated codes
      *
      * @param content List of codes
      */
     public void save(final List<String> content) {
-        persistExecutor.execute(() -> {
-            try (BufferedWriter writer = Files.newBufferedWriter(path, Charset.defaultCharset(), StandardOpenOption.APPEND)) {
-                content.forEach(code -> {
-                    if (monitor.add(Integer.parseInt(code))) {
-                        try {
-                            writer.write(code);
-                            writer.newLine();
-                        } catch (IOException e) {
-                            throw new IllegalStateException(e);
-                        }
-                    }
-                });
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
-            }
-        });
+        final IntBatch batch = new IntBatch(content.size());
+        content.forEach(code -> batch.add(Integer.parseInt(code)));
+        appendLog.append(batch);
+    }
+
+    /**
+     * persists codes of a batch, the batch can be cleared and reused once this method returns.
+     * Codes are handed to the single log writer, Monitor counting and file writes happen on the
+     * writer thread so they are detached from receiving connection responsibilities.
+     * Blocks while the staging buffer is full
+     *
+     * @param batch codes parsed from a connection
+     */
+    public void save(final IntBatch batch) {
+        appendLog.append(appendLog.copyOf(batch));
     }
 
+    /**
+     * persists codes of a batch when the staging buffer has room for them, the batch can be cleared
+     * and reused once this method returns true
+     *
+     * @param batch codes parsed from a connection
+     * @return false when the staging buffer is full and the batch was not taken
+     */
+    public boolean offer(final IntBatch batch) {
+        return appendLog.offer(appendLog.copyOf(batch));
+    }
+
+    /**
+     * drains queued codes to numbers log file and closes it
+     */
     public void shutdown() {
-        this.persistExecutor.shutdown();
-        try {
-            this.persistExecutor.awaitTermination(15, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            throw new IllegalStateException(e);
-        }
+        shutdown(TimeUnit.SECONDS.toMillis(15));
+    }
+
+    /**
+     * drains queued codes to numbers log file and closes it, then reports codes written meanwhile
+     * and codes still queued when the timeout elapsed
+     * @param timeoutMillis time to wait for the queued codes
+     * @return true when no code was lost
+     */
+    public boolean shutdown(final long timeoutMillis) {
+        final long start = System.nanoTime();
+        final long pending = appendLog.pendingCodes();
+        final long written = appendLog.writtenCodes();
+        final long lost = appendLog.shutdown(timeoutMillis);
+        System.out.printf("Numbers log closed in %d ms, %d codes pending, %d unique codes flushed, %d codes lost%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), pending,
+                appendLog.writtenCodes() - written, lost);
+        return lost == 0;
     }
 }
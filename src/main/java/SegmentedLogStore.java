@@ -0,0 +1,275 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Numbers log split in segment files of a fixed size. The active segment is pre-allocated and memory mapped,
+ * so appending is a copy into the page cache with no system call; when it fills up its boundaries are appended
+ * to numbers.index and writing rolls over to the next segment. Full segments are never touched again and can be
+ * archived while the server runs, as long as a snapshot covers them when the server is resumed.
+ * <p>
+ * Segments are named numbers-NNNNNN.log, or .bin in binary log format, index entries are the log offset
+ * and length of each full segment.
+ * The unused tail of the active segment is zero filled, its end is the first record that does not read
+ */
+final class SegmentedLogStore implements LogStore {
+
+    public static final String NUMBERS_INDEX = "numbers.index";
+    public static final String SEGMENT_GLOB = "numbers-*.{log,bin}";
+
+    private static final int INDEX_ENTRY_BYTES = 8 + 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final LogFormat format;
+    private final FileChannel index;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+    private final long[] sealedOffsets;
+    private final long[] sealedLengths;
+
+    private int segment;
+    private long segmentOffset;
+    private MappedByteBuffer active;
+    private int firstUnforced;
+    private volatile long written;
+
+    /**
+     * opens the segments found in directory, or starts the first one
+     * @param segmentBytes size of new segments, rounded down to whole records
+     * @param format       encoding of the records
+     */
+    SegmentedLogStore(final Path directory, final int segmentBytes, final LogFormat format) {
+        this.directory = directory;
+        this.format = format;
+        this.segmentBytes = Math.max(1, segmentBytes / format.recordLength()) * format.recordLength();
+        try {
+            this.index = FileChannel.open(directory.resolve(NUMBERS_INDEX), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final int entries = (int) (index.size() / INDEX_ENTRY_BYTES);
+            index.truncate((long) entries * INDEX_ENTRY_BYTES);
+            this.sealedOffsets = new long[entries];
+            this.sealedLengths = new long[entries];
+            final MappedByteBuffer boundaries = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+            for (int i = 0; i < entries; i++) {
+                sealedOffsets[i] = boundaries.getLong();
+                sealedLengths[i] = boundaries.getLong();
+            }
+            index.position(index.size());
+            this.segment = entries;
+            this.firstUnforced = entries;
+            this.segmentOffset = entries == 0 ? 0 : sealedOffsets[entries - 1] + sealedLengths[entries - 1];
+            this.active = map(segment);
+            this.written = size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void write(final ByteBuffer records) throws IOException {
+        while (records.hasRemaining()) {
+            if (!active.hasRemaining()) {
+                rotate();
+            }
+            final int limit = records.limit();
+            records.limit(records.position() + Math.min(records.remaining(), active.remaining()));
+            active.put(records);
+            records.limit(limit);
+        }
+        written = size();
+    }
+
+    @Override
+    public long size() {
+        return segmentOffset + active.position();
+    }
+
+    @Override
+    public LogFormat format() {
+        return format;
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (; firstUnforced < segment; firstUnforced++) {
+            try (FileChannel full = FileChannel.open(segmentPath(firstUnforced), StandardOpenOption.WRITE)) {
+                full.force(false);
+            }
+        }
+        active.force();
+        index.force(false);
+    }
+
+    @Override
+    public long recover(final Monitor monitor, final long fromOffset) {
+        long records = 0;
+        for (int i = 0; i < sealedOffsets.length; i++) {
+            if (sealedOffsets[i] + sealedLengths[i] > fromOffset) {
+                records += recover(i, monitor, Math.max(0, fromOffset - sealedOffsets[i]), sealedLengths[i]);
+            }
+        }
+        return records + recover(segment, monitor, Math.max(0, fromOffset - segmentOffset), active.position());
+    }
+
+    /**
+     * full segments are read up to their length in numbers.index, archived ones are skipped
+     */
+    @Override
+    public long scan(final IntConsumer codes) throws IOException {
+        final long end = written;
+        final ByteBuffer boundaries;
+        try (FileChannel channel = FileChannel.open(directory.resolve(NUMBERS_INDEX), StandardOpenOption.READ)) {
+            boundaries = ByteBuffer.allocate((int) (channel.size() / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES));
+            while (boundaries.hasRemaining() && channel.read(boundaries) >= 0) {
+                // read every whole entry
+            }
+            boundaries.flip();
+        }
+        long records = 0;
+        long offset = 0;
+        int number = 0;
+        for (; boundaries.remaining() >= INDEX_ENTRY_BYTES; number++) {
+            offset = boundaries.getLong();
+            if (offset >= end) {
+                return records;
+            }
+            final long length = Math.min(boundaries.getLong(), end - offset);
+            records += scan(number, length, codes);
+            offset += length;
+        }
+        return offset < end ? records + scan(number, end - offset, codes) : records;
+    }
+
+    /**
+     * forces the active segment and cuts its zero filled tail, so a closed log ends with its last record;
+     * a reopened segment is extended to the segment size again
+     */
+    @Override
+    public void close() {
+        try {
+            final int end = active.position();
+            active.force();
+            if (unmap(active)) {
+                try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.WRITE)) {
+                    channel.truncate(end);
+                    channel.force(true);
+                }
+            }
+            index.force(false);
+            index.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * removes segments and index of a previous run from directory
+     */
+    static void cleanUp(final Path directory) {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, SEGMENT_GLOB)) {
+            for (Path path : segments) {
+                Files.delete(path);
+            }
+            Files.deleteIfExists(directory.resolve(NUMBERS_INDEX));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Path segmentPath(final int number) {
+        return directory.resolve(String.format("numbers-%06d.%s", number, format.extension()));
+    }
+
+    @Override
+    public String toString() {
+        return directory.resolve("numbers-*." + format.extension()).toString();
+    }
+
+    private long recover(final int number, final Monitor monitor, final long fromByte, final long length) {
+        final Path path = segmentPath(number);
+        if (!Files.exists(path)) {
+            throw new IllegalStateException(path + " is missing and not covered by a snapshot");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return LogRecovery.recover(channel, monitor, fromByte / format.recordLength(),
+                    length / format.recordLength(), format);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long scan(final int number, final long length, final IntConsumer codes) throws IOException {
+        final Path path = segmentPath(number);
+        return Files.exists(path) ? LogReader.read(path, length, format, codes) : 0;
+    }
+
+    /**
+     * records the boundaries of the full active segment in the index and maps the next one
+     */
+    private void rotate() throws IOException {
+        indexEntry.clear();
+        indexEntry.putLong(segmentOffset).putLong(active.position()).flip();
+        while (indexEntry.hasRemaining()) {
+            index.write(indexEntry);
+        }
+        segmentOffset += active.position();
+        segment++;
+        active = map(segment);
+    }
+
+    /**
+     * releases a mapping straight away instead of once it is garbage collected, a file still mapped cannot be
+     * truncated everywhere. Invokes the JDK cleaner through reflection: Unsafe.invokeCleaner from Java 9 on,
+     * the cleaner of the buffer on Java 8. The buffer must not be touched afterwards
+     * @return false when the mapping is left to the garbage collector
+     */
+    private static boolean unmap(final MappedByteBuffer mapped) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), mapped);
+            } catch (NoSuchMethodException e) {
+                final Method cleanerMethod = mapped.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(mapped);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.printf("Could not unmap the active log segment, its zero filled tail is kept: %s%n", e);
+            return false;
+        }
+    }
+
+    /**
+     * maps a segment positioned after its last whole record, zeroing a partial record left by a crash
+     */
+    private MappedByteBuffer map(final int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long existing = channel.size() / format.recordLength() * format.recordLength();
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(existing, segmentBytes));
+            int end = 0;
+            while (end < mapped.limit() && format.read(mapped, end) >= 0) {
+                end += format.recordLength();
+            }
+            for (int i = end; i < Math.min(end + format.recordLength(), mapped.limit()); i++) {
+                mapped.put(i, (byte) 0);
+            }
+            mapped.position(end);
+            return mapped;
+        }
+    }
+}
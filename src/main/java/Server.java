@@ -1,115 +1,477 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.charset.Charset;
-import java.util.Arrays;
-import java.util.List;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
 /**
- * Singleton responsible for socket receiving connections
- * accepts 5 client connections enforced by thread pool
+ * Server responsible for socket receiving connections, configured by a {@link ServerConfig}.
+ * Embedded servers are started and stopped as objects, several of them can run in one JVM on ephemeral ports;
+ * the command line runs the singleton configured by system properties until a client terminates it.
+ * Accepts 5 client connections by default, enforced by thread pool, by a semaphore in virtual ingestion mode,
+ * or by the selector engine in nio ingestion mode.
+ * Duplicates caught by the optional front filter are dropped right after parsing,
+ * in a cluster codes owned by other nodes are forwarded to them before persistence
  */
 public class Server {
 
     public static final String TERMINATE_SIGNAL = "terminate";
+    public static final String STATS_COMMAND = "stats";
+    public static final int PORT = Integer.getInteger("conmuncher.port", 4000);
+    public static final int MAX_CONNECTIONS = 5;
+    static final int READ_BUFFER_SIZE = 8192;
+    static final int BATCH_SIZE = 1024;
+    static final long SHUTDOWN_SECONDS = Long.getLong("conmuncher.shutdown.seconds", 15);
 
     private static Server serverInstance;
 
-    private final ExecutorService connectionExecutor =
-            Executors.newFixedThreadPool(5);
+    private final ServerConfig config;
+    private final IngestionMode ingestionMode;
+    private final ExecutorService connectionExecutor;
+    private final Semaphore connectionPermits;
 
     private final AtomicBoolean isShutdownInitiated = new AtomicBoolean(false);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean codesLost;
 
     private final Monitor monitor;
     private final Repository repository;
+    private final MetricsEndpoint metricsEndpoint;
+    private final Cluster cluster;
+    private final RecentCodes recentCodes;
+    private volatile NioConnectionEngine nioEngine;
+    private volatile ServerSocket serverSocket;
 
-    public synchronized static Server getInstance() {
-        if (Server.serverInstance == null) {
-            Server.serverInstance = new Server();
+    /**
+     * starts the server configured by system properties and receives connections on the calling thread
+     * until it shuts down, callers coming while it runs get the running server straight away
+     */
+    public static Server getInstance() {
+        final Server server;
+        synchronized (Server.class) {
+            if (Server.serverInstance != null) {
+                return Server.serverInstance;
+            }
+            server = new Server(ServerConfig.fromSystemProperties());
+            server.bind();
+            Server.serverInstance = server;
+        }
+        server.receiveConnections();
+        return server;
+    }
+
+    /**
+     * opens the numbers log, cluster links and metrics endpoint, connections are received once started
+     */
+    public Server(final ServerConfig config) {
+        this.config = config;
+        this.ingestionMode = config.ingestionMode();
+        this.connectionExecutor = ingestionMode == IngestionMode.VIRTUAL
+                ? newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(config.maxConnections());
+        this.connectionPermits = new Semaphore(config.maxConnections());
+        this.recentCodes = RecentCodes.create(config.prefilterSlots());
+        this.monitor = new Monitor(config.reportSeconds());
+        this.repository = new Repository(monitor, config);
+        this.cluster = config.clusterNodes().isEmpty() ? null : new Cluster(config.clusterNodes(),
+                config.clusterNode(), config.batchSize(), repository::save, monitor);
+        if (this.cluster != null) {
+            monitor.watchCluster(this.cluster::uniqueTotal);
+        }
+        this.metricsEndpoint = MetricsEndpoint.start(config.metricsPort(), monitor.metrics());
+    }
+
+    /**
+     * binds the client port and receives connections on a thread of its own until stopped
+     * @return this server, with its port bound
+     */
+    public Server start() {
+        bind();
+        new Thread(this::receiveConnections, "conmuncher-acceptor").start();
+        return this;
+    }
+
+    /**
+     * shuts the server down, see {@link #shutdown()}
+     * @return false when codes were lost
+     */
+    public boolean stop() {
+        shutdown();
+        return awaitShutdown();
+    }
+
+    /**
+     * @return bound client port, the configured one or the ephemeral port picked for port 0
+     */
+    public int port() {
+        return ingestionMode == IngestionMode.NIO ? nioEngine.port() : serverSocket.getLocalPort();
+    }
+
+    public Monitor monitor() {
+        return monitor;
+    }
+
+    /**
+     * @return queries over unique codes, see {@link Repository#query()}
+     */
+    public CodeQuery query() {
+        return repository.query();
+    }
+
+    private void bind() {
+        if (ingestionMode == IngestionMode.NIO) {
+            this.nioEngine = new NioConnectionEngine(config.port(), config.maxConnections(),
+                    config.readBufferSize(), config.batchSize(), config.coalesceMicros(),
+                    connection -> processBuffer(connection, this.isShutdownInitiated.get()), monitor.metrics());
+        } else {
+            try {
+                this.serverSocket = new ServerSocket(config.port());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
         }
-        return Server.serverInstance;
+        monitor.metrics().register(port());
     }
 
-    private Server() {
-        this.monitor = new Monitor();
-        this.repository = new Repository(monitor);
-        receiveConnectionsLoop();
+    private void receiveConnections() {
+        if (ingestionMode == IngestionMode.NIO) {
+            receiveConnectionsNio();
+        } else {
+            receiveConnectionsLoop();
+        }
     }
 
     /**
-     * accepts connections on port 4000
-     * when shutdown is initialized it stops processing
+     * accepts connections on the bound port
+     * when shutdown is initialized it stops processing, shutdown closes the server socket
      */
     private void receiveConnectionsLoop() {
-        try (ServerSocket serverSocket = new ServerSocket(4000)) {
+        try (ServerSocket serverSocket = this.serverSocket) {
             while (!this.isShutdownInitiated.get()) {
-                Socket socket = serverSocket.accept();
-                connectionExecutor.execute(() -> processRequestLoop(socket));
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    if (this.isShutdownInitiated.get()) {
+                        return;
+                    }
+                    throw e;
+                }
+                try {
+                    if (ingestionMode == IngestionMode.VIRTUAL) {
+                        connectionExecutor.execute(() -> processRequestPermitted(socket));
+                    } else {
+                        connectionExecutor.execute(() -> processRequestLoop(socket));
+                    }
+                } catch (RejectedExecutionException e) {
+                    socket.close();
+                }
             }
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
+    /**
+     * accepts connections on the bound port with a single selector thread,
+     * the event loop returns when shutdown is initialized
+     */
+    private void receiveConnectionsNio() {
+        if (this.isShutdownInitiated.get()) {
+            this.nioEngine.close();
+        }
+        this.nioEngine.run();
+    }
+
+    /**
+     * waits for one of the connection permits, then reads the connection like a pooled thread does
+     */
+    private void processRequestPermitted(final Socket socket) {
+        try {
+            connectionPermits.acquire();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            processRequestLoop(socket);
+        } finally {
+            connectionPermits.release();
+        }
+    }
+
     /**
      * reads input stream and delegate persistence of file
-     * when shutdown is initialized it stops processing
+     * when shutdown is initialized it stops processing, shutdown ends input of the socket so a blocked read returns,
+     * a connection still waiting for room in the staging buffer at the shutdown deadline is interrupted
      */
     private void processRequestLoop(final Socket socket) {
-        try (BufferedReader in = new BufferedReader(
-                new InputStreamReader(socket.getInputStream(), Charset.defaultCharset()))) {
-            String inputLine;
-            while ((inputLine = in.readLine()) != null && !this.isShutdownInitiated.get()) {
-                if (TERMINATE_SIGNAL.equals(inputLine)) {
-                    this.shutdown();
+        final ClientConnection connection = newConnection(socket);
+        sockets.add(socket);
+        if (this.isShutdownInitiated.get()) {
+            shutdownInput(socket);
+        }
+        monitor.metrics().connected(connection);
+        try (InputStream in = socket.getInputStream()) {
+            final ByteBuffer buffer = connection.buffer();
+            int read;
+            while ((read = readHolding(socket, in, connection)) != -1) {
+                buffer.clear().limit(read);
+                if (!processBuffer(connection, true)) {
+                    return;
+                }
+                if (this.isShutdownInitiated.get()) {
                     break;
-                } else {
-                    final List<String> receivedData = Arrays.stream(inputLine.split(System.lineSeparator()))
-                            .filter(line -> line != null && !line.isEmpty())
-                            .collect(Collectors.toList());
-                    if (repository.isRequestInvalid(receivedData)) {
-                        break;
-                    }
-                    repository.save(receivedData);
                 }
             }
+            connection.coalescer().end();
+            processBuffer(connection, true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalStateException e) {
+            if (!this.isShutdownInitiated.get()) {
+                throw e;
+            }
+            System.err.printf("Closing connection %s past the shutdown deadline, codes it held are lost: %s%n",
+                    socket.getRemoteSocketAddress(), e);
+        } finally {
+            sockets.remove(socket);
+            monitor.metrics().disconnected(connection);
+        }
+    }
+
+    /**
+     * a socket closed meanwhile by its reader has nothing left to end
+     */
+    private static void shutdownInput(final Socket socket) {
+        try {
+            socket.shutdownInput();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    /**
+     * reads the socket, while codes are held it waits for them no longer than their deadline.
+     * The socket timeout is only set when codes start or stop being held, held codes may wait for the
+     * timeout once more when a read returned data before the deadline
+     * @return bytes read, 0 when the timeout passed first, -1 at end of stream
+     */
+    private static int readHolding(final Socket socket, final InputStream in, final ClientConnection connection)
+            throws IOException {
+        final BatchCoalescer coalescer = connection.coalescer();
+        if (coalescer.isHolding() != (connection.readTimeoutMillis() != 0)) {
+            final int timeout = coalescer.isHolding()
+                    ? (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(coalescer.deadline() - System.nanoTime() + 999_999))
+                    : 0;
+            socket.setSoTimeout(timeout);
+            connection.readTimeoutMillis(timeout);
+        }
+        try {
+            return in.read(connection.buffer().array(), 0, connection.buffer().capacity());
+        } catch (SocketTimeoutException e) {
+            return 0;
+        }
+    }
+
+    private ClientConnection newConnection(final Socket socket) {
+        try {
+            return new ClientConnection(String.valueOf(socket.getRemoteSocketAddress()),
+                    ByteBuffer.allocate(config.readBufferSize()), config.batchSize(), config.coalesceMicros(),
+                    Channels.newChannel(socket.getOutputStream()));
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
     /**
-     * attempts a clean shutdown of all thread pools
+     * parses received bytes and delegates persistence of the codes found in them.
+     * Codes of a drained buffer may be held in the connection batch for more codes, see {@link BatchCoalescer};
+     * processing the connection again once its coalescer ended or its deadline passed persists them,
+     * an ended connection also gets the last line it sent without newline.
+     * When a full staging buffer or cluster link queue cannot take a batch without blocking, the connection is
+     * paused keeping its batch and remaining bytes, it is processed again once the reader retries.
+     * A stats line is answered with the current totals, codes sent before it may still be on their way to Monitor
+     * @param block waits for room in the staging buffer instead of pausing the connection
+     * @return false when the connection must stop, either on invalid input or on termination
+     */
+    private boolean processBuffer(final ClientConnection connection, final boolean block) {
+        final IntBatch batch = connection.parser().batch();
+        while (true) {
+            CodeParser.Result result = connection.resume();
+            if (result == null) {
+                final int held = batch.size();
+                final long start = System.nanoTime();
+                result = connection.parser().parse(connection.buffer());
+                if (result == CodeParser.Result.DRAINED && connection.coalescer().isEnded()) {
+                    result = connection.parser().end();
+                }
+                final long parsed = System.nanoTime();
+                monitor.metrics().parsed(connection, parsed - start, batch.size() - held);
+                connection.coalescer().arrived(batch.size() - held, parsed);
+                if (result == CodeParser.Result.DRAINED && connection.coalescer().hold(batch.size(), parsed)) {
+                    return true;
+                }
+                if (recentCodes != null) {
+                    recentCodes.filter(batch, monitor);
+                }
+            }
+            if (cluster != null && !batch.isEmpty()) {
+                if (!block && !cluster.hasRoom()) {
+                    connection.pause(result);
+                    return true;
+                }
+                cluster.route(batch);
+            }
+            if (!batch.isEmpty()) {
+                if (block) {
+                    repository.save(batch);
+                } else if (!repository.offer(batch)) {
+                    connection.pause(result);
+                    return true;
+                }
+                batch.clear();
+            }
+            connection.coalescer().flushed();
+            switch (result) {
+                case TERMINATE:
+                    new Thread(this::shutdown, "conmuncher-shutdown").start();
+                    return false;
+                case STATS:
+                    reply(connection, monitor.stats());
+                    break;
+                case INVALID:
+                    return false;
+                case DRAINED:
+                    return true;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * a client gone before its reply is disconnected on its next read
+     */
+    private static void reply(final ClientConnection connection, final String line) {
+        try {
+            connection.reply(line);
+        } catch (IOException ignored) {
+            // nothing to answer to
+        }
+    }
+
+    /**
+     * stops accepting connections and ends input of connected clients, so every reader persists the codes
+     * it received and returns, then drains the persistence pipeline into the numbers log.
+     * All of it has the configured shutdown seconds, codes still queued by then are reported as lost.
+     * Returns once the server stopped, also when another thread started the shutdown.
+     * Terminate lines start it on a thread of their own, so the connection asking for it is not waited for by itself
      */
     public void shutdown() {
-        this.isShutdownInitiated.set(true);
+        if (!this.isShutdownInitiated.compareAndSet(false, true)) {
+            awaitShutdown();
+            return;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.shutdownSeconds());
         try {
+            if (this.nioEngine != null) {
+                this.nioEngine.close();
+            }
+            if (this.serverSocket != null) {
+                this.serverSocket.close();
+            }
+            for (Socket socket : sockets) {
+                shutdownInput(socket);
+            }
             this.connectionExecutor.shutdown();
-            this.connectionExecutor.awaitTermination(15, TimeUnit.SECONDS);
+            if (this.nioEngine != null) {
+                this.nioEngine.awaitClosed(remainingMillis(deadline));
+            }
+            if (!this.connectionExecutor.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+                this.connectionExecutor.shutdownNow();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new IllegalStateException(e);
         } finally {
-            repository.shutdown();
+            final long forwardLost = this.cluster == null ? 0 : this.cluster.close(remainingMillis(deadline));
+            this.codesLost = !repository.shutdown(remainingMillis(deadline)) || forwardLost > 0;
+            if (this.metricsEndpoint != null) {
+                this.metricsEndpoint.stop();
+            }
+            monitor.metrics().unregister();
             monitor.shutdown();
-            System.exit(0);
+            synchronized (Server.class) {
+                if (Server.serverInstance == this) {
+                    Server.serverInstance = null;
+                }
+            }
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * waits until the server stopped
+     * @return false when codes were lost, their threads may still be running
+     */
+    public boolean awaitShutdown() {
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return !codesLost;
+    }
+
+    private static long remainingMillis(final long deadline) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor looked up at runtime, so the project still builds for 1.8
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual ingestion mode needs a JDK 21+ runtime, running "
+                    + System.getProperty("java.version"), e);
         }
     }
 
     public static void terminate() {
-        if (Server.serverInstance != null) {
-            serverInstance.shutdown();
+        final Server server;
+        synchronized (Server.class) {
+            server = Server.serverInstance;
+        }
+        if (server != null) {
+            server.shutdown();
         }
     }
 
+    /**
+     * the JVM exits once every thread is done, or straight away when codes were lost at the shutdown deadline
+     */
     public static void main(String[] args) {
-        Server.getInstance();
+        if (!Server.getInstance().awaitShutdown()) {
+            System.exit(1);
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,428 @@
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Settings of one {@link Server}: ports, connection limits, ingestion, persistence pipeline, reporting and cluster.
+ * A builder starts from the conmuncher.* system properties, so the configuration of a server started from
+ * the command line is the default one; servers embedded in the same JVM, in tests and benchmark sweeps,
+ * override what they need, usually port 0 for an ephemeral port and a directory of their own
+ */
+public final class ServerConfig {
+
+    private final int port;
+    private final int maxConnections;
+    private final IngestionMode ingestionMode;
+    private final int readBufferSize;
+    private final int batchSize;
+    private final long coalesceMicros;
+    private final int prefilterSlots;
+    private final Path directory;
+    private final boolean resume;
+    private final LogLayout logLayout;
+    private final LogFormat logFormat;
+    private final int segmentBytes;
+    private final int stagingCodes;
+    private final int dedupThreads;
+    private final boolean orderedDedup;
+    private final int ringBatches;
+    private final int flushBytes;
+    private final long flushMillis;
+    private final Durability durability;
+    private final long fsyncMillis;
+    private final long snapshotSeconds;
+    private final long reportSeconds;
+    private final int metricsPort;
+    private final long shutdownSeconds;
+    private final List<InetSocketAddress> clusterNodes;
+    private final int clusterNode;
+
+    private ServerConfig(final Builder builder) {
+        this.port = builder.port;
+        this.maxConnections = builder.maxConnections;
+        this.ingestionMode = builder.ingestionMode;
+        this.readBufferSize = builder.readBufferSize;
+        this.batchSize = builder.batchSize;
+        this.coalesceMicros = builder.coalesceMicros;
+        this.prefilterSlots = builder.prefilterSlots;
+        this.directory = builder.directory;
+        this.resume = builder.resume;
+        this.logLayout = builder.logLayout;
+        this.logFormat = builder.logFormat;
+        this.segmentBytes = builder.segmentBytes;
+        this.stagingCodes = builder.stagingCodes;
+        this.dedupThreads = builder.dedupThreads;
+        this.orderedDedup = builder.orderedDedup;
+        this.ringBatches = builder.ringBatches;
+        this.flushBytes = builder.flushBytes;
+        this.flushMillis = builder.flushMillis;
+        this.durability = builder.durability;
+        this.fsyncMillis = builder.fsyncMillis;
+        this.snapshotSeconds = builder.snapshotSeconds;
+        this.reportSeconds = builder.reportSeconds;
+        this.metricsPort = builder.metricsPort;
+        this.shutdownSeconds = builder.shutdownSeconds;
+        this.clusterNodes = Collections.unmodifiableList(new ArrayList<>(builder.clusterNodes));
+        this.clusterNode = builder.clusterNode;
+    }
+
+    /**
+     * @return builder holding the settings of the conmuncher.* system properties
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return configuration of the conmuncher.* system properties
+     */
+    public static ServerConfig fromSystemProperties() {
+        return builder().build();
+    }
+
+    /**
+     * @return client port, 0 binds an ephemeral one, see {@link Server#port()}
+     */
+    public int port() {
+        return port;
+    }
+
+    public int maxConnections() {
+        return maxConnections;
+    }
+
+    public IngestionMode ingestionMode() {
+        return ingestionMode;
+    }
+
+    public int readBufferSize() {
+        return readBufferSize;
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    public long coalesceMicros() {
+        return coalesceMicros;
+    }
+
+    public int prefilterSlots() {
+        return prefilterSlots;
+    }
+
+    /**
+     * @return directory numbers log, its segments and snapshot are kept in
+     */
+    public Path directory() {
+        return directory;
+    }
+
+    public boolean resume() {
+        return resume;
+    }
+
+    public LogLayout logLayout() {
+        return logLayout;
+    }
+
+    public LogFormat logFormat() {
+        return logFormat;
+    }
+
+    public int segmentBytes() {
+        return segmentBytes;
+    }
+
+    public int stagingCodes() {
+        return stagingCodes;
+    }
+
+    public int dedupThreads() {
+        return dedupThreads;
+    }
+
+    public boolean orderedDedup() {
+        return orderedDedup;
+    }
+
+    public int ringBatches() {
+        return ringBatches;
+    }
+
+    public int flushBytes() {
+        return flushBytes;
+    }
+
+    public long flushMillis() {
+        return flushMillis;
+    }
+
+    public Durability durability() {
+        return durability;
+    }
+
+    public long fsyncMillis() {
+        return fsyncMillis;
+    }
+
+    public long snapshotSeconds() {
+        return snapshotSeconds;
+    }
+
+    public long reportSeconds() {
+        return reportSeconds;
+    }
+
+    public int metricsPort() {
+        return metricsPort;
+    }
+
+    public long shutdownSeconds() {
+        return shutdownSeconds;
+    }
+
+    /**
+     * @return peer addresses of every cluster node, empty when this server runs alone
+     */
+    public List<InetSocketAddress> clusterNodes() {
+        return clusterNodes;
+    }
+
+    public int clusterNode() {
+        return clusterNode;
+    }
+
+    public static final class Builder {
+
+        private int port = Server.PORT;
+        private int maxConnections = Server.MAX_CONNECTIONS;
+        private IngestionMode ingestionMode = IngestionMode.fromSystemProperty();
+        private int readBufferSize = Server.READ_BUFFER_SIZE;
+        private int batchSize = Server.BATCH_SIZE;
+        private long coalesceMicros = BatchCoalescer.MAX_DELAY_MICROS;
+        private int prefilterSlots = RecentCodes.SLOTS;
+        private Path directory = Paths.get(".");
+        private boolean resume = Repository.RESUME;
+        private LogLayout logLayout = Repository.LOG_LAYOUT;
+        private LogFormat logFormat = Repository.LOG_FORMAT;
+        private int segmentBytes = Repository.SEGMENT_BYTES;
+        private int stagingCodes = Repository.STAGING_CAPACITY;
+        private int dedupThreads = Repository.DEDUP_THREADS;
+        private boolean orderedDedup = Repository.ORDERED_DEDUP;
+        private int ringBatches = Repository.RING_BATCHES;
+        private int flushBytes = Repository.FLUSH_BYTES;
+        private long flushMillis = Repository.FLUSH_MILLIS;
+        private Durability durability = Repository.DURABILITY;
+        private long fsyncMillis = Repository.FSYNC_MILLIS;
+        private long snapshotSeconds = Repository.SNAPSHOT_SECONDS;
+        private long reportSeconds = Monitor.REPORT_SECONDS;
+        private int metricsPort = MetricsEndpoint.PORT;
+        private long shutdownSeconds = Server.SHUTDOWN_SECONDS;
+        private List<InetSocketAddress> clusterNodes = Cluster.parseNodes(Cluster.NODES);
+        private int clusterNode = Cluster.NODE;
+
+        private Builder() {
+        }
+
+        /**
+         * @param port client port, 0 for an ephemeral one
+         */
+        public Builder port(final int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param maxConnections clients read at the same time, and connection threads of the blocking mode
+         */
+        public Builder maxConnections(final int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder ingestionMode(final IngestionMode ingestionMode) {
+            this.ingestionMode = ingestionMode;
+            return this;
+        }
+
+        /**
+         * @param readBufferSize bytes read from a connection at once
+         */
+        public Builder readBufferSize(final int readBufferSize) {
+            this.readBufferSize = readBufferSize;
+            return this;
+        }
+
+        /**
+         * @param batchSize codes parsed into one batch before it is staged
+         */
+        public Builder batchSize(final int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param coalesceMicros longest time codes of a connection wait for more, see {@link BatchCoalescer}
+         */
+        public Builder coalesceMicros(final long coalesceMicros) {
+            this.coalesceMicros = coalesceMicros;
+            return this;
+        }
+
+        /**
+         * @param prefilterSlots codes cached by the duplicate front filter, 0 turns it off
+         */
+        public Builder prefilterSlots(final int prefilterSlots) {
+            this.prefilterSlots = prefilterSlots;
+            return this;
+        }
+
+        public Builder directory(final Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param resume keeps the numbers log of a previous run and restores its codes as already seen
+         */
+        public Builder resume(final boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public Builder logLayout(final LogLayout logLayout) {
+            this.logLayout = logLayout;
+            return this;
+        }
+
+        public Builder logFormat(final LogFormat logFormat) {
+            this.logFormat = logFormat;
+            return this;
+        }
+
+        public Builder segmentBytes(final int segmentBytes) {
+            this.segmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * @param stagingCodes codes waiting for the dedup stage before connections are held back
+         */
+        public Builder stagingCodes(final int stagingCodes) {
+            this.stagingCodes = stagingCodes;
+            return this;
+        }
+
+        public Builder dedupThreads(final int dedupThreads) {
+            this.dedupThreads = dedupThreads;
+            return this;
+        }
+
+        public Builder orderedDedup(final boolean orderedDedup) {
+            this.orderedDedup = orderedDedup;
+            return this;
+        }
+
+        /**
+         * @param ringBatches batches waiting between each dedup thread and the log writer
+         */
+        public Builder ringBatches(final int ringBatches) {
+            this.ringBatches = ringBatches;
+            return this;
+        }
+
+        /**
+         * @param flushBytes log writer buffer size
+         */
+        public Builder flushBytes(final int flushBytes) {
+            this.flushBytes = flushBytes;
+            return this;
+        }
+
+        /**
+         * @param flushMillis longest time a code waits in the log writer buffer
+         */
+        public Builder flushMillis(final long flushMillis) {
+            this.flushMillis = flushMillis;
+            return this;
+        }
+
+        public Builder durability(final Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        public Builder fsyncMillis(final long fsyncMillis) {
+            this.fsyncMillis = fsyncMillis;
+            return this;
+        }
+
+        /**
+         * @param snapshotSeconds time between snapshots, 0 takes none
+         */
+        public Builder snapshotSeconds(final long snapshotSeconds) {
+            this.snapshotSeconds = snapshotSeconds;
+            return this;
+        }
+
+        /**
+         * @param reportSeconds time between printed reports, 0 prints none
+         */
+        public Builder reportSeconds(final long reportSeconds) {
+            this.reportSeconds = reportSeconds;
+            return this;
+        }
+
+        /**
+         * @param metricsPort loopback port of the metrics scrape endpoint, 0 leaves it off
+         */
+        public Builder metricsPort(final int metricsPort) {
+            this.metricsPort = metricsPort;
+            return this;
+        }
+
+        /**
+         * @param shutdownSeconds time a shutdown has to drain codes before they are reported lost
+         */
+        public Builder shutdownSeconds(final long shutdownSeconds) {
+            this.shutdownSeconds = shutdownSeconds;
+            return this;
+        }
+
+        /**
+         * @param nodes peer addresses of every cluster node in the same order on each node, empty to run alone
+         * @param node  index of this server in nodes
+         */
+        public Builder cluster(final List<InetSocketAddress> nodes, final int node) {
+            this.clusterNodes = nodes;
+            this.clusterNode = node;
+            return this;
+        }
+
+        public ServerConfig build() {
+            check(port >= 0 && port <= 0xFFFF, "port " + port);
+            check(maxConnections > 0, "max connections " + maxConnections);
+            check(readBufferSize >= CodeParser.RECORD_LENGTH, "read buffer size " + readBufferSize);
+            check(batchSize > 0, "batch size " + batchSize);
+            check(stagingCodes >= batchSize, "staging codes " + stagingCodes + " below batch size " + batchSize);
+            check(dedupThreads > 0, "dedup threads " + dedupThreads);
+            check(ringBatches > 0, "ring batches " + ringBatches);
+            check(segmentBytes >= logFormat.recordLength(), "segment bytes " + segmentBytes);
+            check(coalesceMicros >= 0 && flushMillis >= 0 && fsyncMillis >= 0 && snapshotSeconds >= 0
+                    && reportSeconds >= 0 && shutdownSeconds >= 0, "negative interval");
+            check(clusterNodes.isEmpty() || clusterNode >= 0 && clusterNode < clusterNodes.size(),
+                    "cluster node " + clusterNode + " of " + clusterNodes);
+            return new ServerConfig(this);
+        }
+
+        private static void check(final boolean valid, final String setting) {
+            if (!valid) {
+                throw new IllegalArgumentException("invalid server setting: " + setting);
+            }
+        }
+    }
+}
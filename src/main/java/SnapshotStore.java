@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary snapshot of Monitor unique codes and the numbers.log offset it covers, so a restart only replays
+ * the log tail past that offset. Codes are copied on the caller thread and written to disk in the background.
+ * <p>
+ * Layout: magic, version, log offset, page count, then for every allocated bitmap page its index
+ * followed by its raw words
+ */
+final class SnapshotStore {
+
+    public static final String NUMBERS_SNAPSHOT = "numbers.snapshot";
+
+    private static final int MAGIC = 0x434D4E53;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final int PAGE_BYTES = 4 + CodeBitmap.WORDS_PER_PAGE * 8;
+
+    private final Path path;
+    private final long[][] image = new long[CodeBitmap.PAGE_COUNT][];
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor();
+    private Future<?> pendingWrite;
+
+    SnapshotStore(final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * copies unique codes of monitor and writes them in the background, skipped while a previous
+     * snapshot is still being written. Every code in the log up to logOffset must be in monitor
+     * @return false when skipped
+     */
+    boolean capture(final Monitor monitor, final long logOffset) {
+        if (pendingWrite != null && !pendingWrite.isDone()) {
+            return false;
+        }
+        final int pages = monitor.copyUniqueCodes(image);
+        pendingWrite = snapshotExecutor.submit(() -> write(logOffset, pages));
+        return true;
+    }
+
+    /**
+     * restores codes of the snapshot into monitor
+     * @param maxOffset size of the log, a snapshot covering more than that is stale and ignored
+     * @return log offset covered by the snapshot, 0 when there is no usable snapshot
+     */
+    long load(final Monitor monitor, final long maxOffset) {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (snapshot.limit() < HEADER_BYTES || snapshot.getInt() != MAGIC || snapshot.getInt() != VERSION) {
+                return 0;
+            }
+            final long logOffset = snapshot.getLong();
+            final int pages = snapshot.getInt();
+            if (logOffset > maxOffset || snapshot.remaining() != (long) pages * PAGE_BYTES) {
+                return 0;
+            }
+            for (int i = 0; i < pages; i++) {
+                final int index = snapshot.getInt();
+                monitor.restorePage(index, snapshot.asLongBuffer());
+                snapshot.position(snapshot.position() + CodeBitmap.WORDS_PER_PAGE * 8);
+            }
+            return logOffset;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * waits for the snapshot being written
+     */
+    void shutdown() {
+        shutdown(TimeUnit.SECONDS.toMillis(15));
+    }
+
+    /**
+     * waits for the snapshot being written, once the timeout elapsed the write is interrupted and the previous
+     * snapshot stays in place
+     * @return false when the write was interrupted
+     */
+    boolean shutdown(final long timeoutMillis) {
+        this.snapshotExecutor.shutdown();
+        try {
+            if (this.snapshotExecutor.awaitTermination(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        this.snapshotExecutor.shutdownNow();
+        System.err.printf("Snapshot %s not written in time, the next start replays more of the log%n", path);
+        return false;
+    }
+
+    /**
+     * removes snapshot of a previous run
+     */
+    static void cleanUp(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(final long logOffset, final int pages) {
+        final Path temporary = Paths.get(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(logOffset).putInt(pages).flip();
+            writeFully(channel, header);
+            final ByteBuffer page = ByteBuffer.allocateDirect(PAGE_BYTES);
+            for (int index = 0; index < image.length; index++) {
+                if (image[index] != null) {
+                    page.clear();
+                    page.putInt(index);
+                    page.asLongBuffer().put(image[index]);
+                    page.position(PAGE_BYTES).flip();
+                    writeFully(channel, page);
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring handing items from exactly one producer thread to exactly one consumer thread.
+ * Read and write indexes sit on separate cache lines and are published with ordered writes, each side
+ * keeps a cached copy of the other index and only reads the shared one when the ring looks full or empty
+ */
+final class SpscRing<T> {
+
+    private static final int PADDING = 8;
+    private static final int HEAD = PADDING;
+    private static final int TAIL = 2 * PADDING;
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLongArray indexes = new AtomicLongArray(3 * PADDING);
+
+    private long producerHead;
+    private long consumerTail;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    SpscRing(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * called by the producer thread only
+     * @return false when the ring is full
+     */
+    boolean offer(final T item) {
+        final long tail = indexes.get(TAIL);
+        if (tail - producerHead >= slots.length) {
+            producerHead = indexes.get(HEAD);
+            if (tail - producerHead >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int) tail & mask] = item;
+        indexes.lazySet(TAIL, tail + 1);
+        return true;
+    }
+
+    /**
+     * called by the consumer thread only
+     * @return oldest item, null when the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        final long head = indexes.get(HEAD);
+        if (head >= consumerTail) {
+            consumerTail = indexes.get(TAIL);
+            if (head >= consumerTail) {
+                return null;
+            }
+        }
+        final int slot = (int) head & mask;
+        final T item = (T) slots[slot];
+        slots[slot] = null;
+        indexes.lazySet(HEAD, head + 1);
+        return item;
+    }
+
+    /**
+     * called by the consumer thread only
+     * @return oldest item, left in the ring, null when the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    T peek() {
+        final long head = indexes.get(HEAD);
+        if (head >= consumerTail) {
+            consumerTail = indexes.get(TAIL);
+            if (head >= consumerTail) {
+                return null;
+            }
+        }
+        return (T) slots[(int) head & mask];
+    }
+
+    /**
+     * @return items in the ring, exact only when neither side is running
+     */
+    int size() {
+        return (int) Math.max(0, indexes.get(TAIL) - indexes.get(HEAD));
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
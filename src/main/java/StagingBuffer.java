@@ -0,0 +1,123 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded hand-off between ingestion and the log writer. Capacity is counted in codes, not batches,
+ * so memory held by pending codes stays bounded whatever the batch sizes are.
+ * When it is full producers either block or are told to stop reading, never is data dropped.
+ * Batches sit in a preallocated array, an empty batch takes one code of room, so queueing allocates nothing
+ */
+final class StagingBuffer {
+
+    private final int capacity;
+    private final Semaphore free;
+    private final BlockingQueue<IntBatch> batches;
+    private volatile boolean closed;
+
+    StagingBuffer(final int capacity) {
+        this.capacity = capacity;
+        this.free = new Semaphore(capacity);
+        this.batches = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * queues codes, blocks until there is room for them
+     * @throws IllegalStateException once the buffer is closed, also when it closes while waiting for room
+     */
+    void put(final IntBatch codes) throws InterruptedException {
+        acquire(permits(codes));
+        codes.stagedAt(System.nanoTime());
+        batches.add(codes);
+    }
+
+    /**
+     * queues codes when there is room for them
+     * @return false when the buffer is full and codes were not queued
+     */
+    boolean offer(final IntBatch codes) {
+        if (closed || !free.tryAcquire(permits(codes))) {
+            return false;
+        }
+        codes.stagedAt(System.nanoTime());
+        batches.add(codes);
+        return true;
+    }
+
+    /**
+     * queues codes, waits up to timeout for room for them
+     * @return false when the timeout elapsed and codes were not queued
+     */
+    boolean offer(final IntBatch codes, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final int permits = permits(codes);
+        if (closed || !free.tryAcquire(permits, timeout, unit)) {
+            return false;
+        }
+        if (closed) {
+            free.release(permits);
+            return false;
+        }
+        codes.stagedAt(System.nanoTime());
+        batches.add(codes);
+        return true;
+    }
+
+    /**
+     * @return oldest batch, null when none arrives within timeout
+     */
+    IntBatch poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return release(batches.poll(timeout, unit));
+    }
+
+    /**
+     * @return oldest batch, waits for one to arrive
+     */
+    IntBatch take() throws InterruptedException {
+        return release(batches.take());
+    }
+
+    /**
+     * @return codes waiting for the writer
+     */
+    int size() {
+        return Math.max(0, capacity - free.availablePermits());
+    }
+
+    /**
+     * refuses codes from now on and wakes up producers waiting for room, used once nothing takes batches anymore
+     */
+    void close() {
+        closed = true;
+        free.release(capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    private IntBatch release(final IntBatch codes) {
+        if (codes != null) {
+            free.release(permits(codes));
+        }
+        return codes;
+    }
+
+    /**
+     * a producer woken up by close passes the permits on to the next one waiting
+     */
+    private void acquire(final int permits) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("staging buffer is closed");
+        }
+        free.acquire(permits);
+        if (closed) {
+            free.release(permits);
+            throw new IllegalStateException("staging buffer is closed");
+        }
+    }
+
+    private int permits(final IntBatch codes) {
+        return Math.max(1, Math.min(codes.size(), capacity));
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over cache line padded cells picked by thread, so concurrent increments do not contend
+ * on one memory word. Cells are only combined when the counter is read.
+ * sumThenReset takes every cell with getAndSet, unlike LongAdder on Java 8, so an increment racing
+ * with a reset is counted in exactly one sum
+ */
+final class StripedCounter {
+
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        final int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        this.mask = stripes - 1;
+    }
+
+    void increment() {
+        cells.getAndIncrement(cell());
+    }
+
+    void add(final long delta) {
+        cells.getAndAdd(cell(), delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @return sum of increments since the previous reset
+     */
+    long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.getAndSet(i, 0);
+        }
+        return sum;
+    }
+
+    private int cell() {
+        final long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (id >>> 32) & mask) * PADDING;
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Default dedup stage. Every worker thread takes batches from the staging buffer, keeps the codes Monitor sees
+ * for the first time and hands them to the writer through its own single-producer single-consumer ring,
+ * so workers never contend with each other. The writer takes batches from the rings in turn, with more than one
+ * worker the log order of codes depends on scheduling.
+ * A batch holds a read lock from Monitor until its ring, the writer takes the write lock to stop the stage at
+ * batch boundaries when it needs Monitor to hold exactly the codes it wrote. Batches left empty go back to the
+ * pool, the others are given back by the writer
+ */
+final class UnorderedDedupStage implements DedupStage {
+
+    private static final long FULL_RING_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final StagingBuffer stagingBuffer;
+    private final Monitor monitor;
+    private final IntPredicate firstSeen;
+    private final SpscRing<IntBatch>[] rings;
+    private final Thread[] workers;
+    private final StampedLock inFlight = new StampedLock();
+    private final IntBatchPool pool;
+    private final Thread consumer;
+    private volatile boolean aborted;
+    private long pauseStamp;
+    private int nextRing;
+    private int stoppedRings;
+
+    /**
+     * @param workers     dedup threads, each with its own ring
+     * @param ringBatches batches a ring holds before its worker waits for the writer
+     * @param consumer    writer thread, woken up when batches are handed to it
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    UnorderedDedupStage(final StagingBuffer stagingBuffer, final Monitor monitor, final int workers, final int ringBatches,
+               final IntBatchPool pool, final Thread consumer) {
+        this.stagingBuffer = stagingBuffer;
+        this.pool = pool;
+        this.monitor = monitor;
+        this.firstSeen = code -> monitor.add(code);
+        this.consumer = consumer;
+        this.rings = new SpscRing[Math.max(1, workers)];
+        this.workers = new Thread[rings.length];
+        for (int i = 0; i < rings.length; i++) {
+            final SpscRing<IntBatch> ring = new SpscRing<>(ringBatches);
+            rings[i] = ring;
+            this.workers[i] = new Thread(() -> dedupLoop(ring), "numbers-dedup-" + i);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * each ring ends with STOP
+     */
+    @Override
+    public boolean stop(final long timeoutMillis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                if (!stagingBuffer.offer(STOP, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    @Override
+    public SpscRing<IntBatch>[] rings() {
+        return rings;
+    }
+
+    /**
+     * takes batches from the rings in turn
+     */
+    @Override
+    public IntBatch poll() {
+        for (int i = 0; i < rings.length; i++) {
+            final SpscRing<IntBatch> ring = rings[nextRing];
+            nextRing = nextRing + 1 == rings.length ? 0 : nextRing + 1;
+            final IntBatch codes = ring.poll();
+            if (codes == STOP) {
+                if (++stoppedRings == rings.length) {
+                    return STOP;
+                }
+            } else if (codes != null) {
+                return codes;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true when no batch is waiting in the staging buffer or in a ring
+     */
+    @Override
+    public boolean isDrained() {
+        if (stagingBuffer.size() > 0) {
+            return false;
+        }
+        for (SpscRing<IntBatch> ring : rings) {
+            if (ring.size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * stops every worker at a batch boundary, the writer keeps draining rings
+     * while it waits so workers blocked on a full ring can finish their batch
+     */
+    @Override
+    public void pause(final Runnable drain) throws InterruptedException {
+        while ((pauseStamp = inFlight.tryWriteLock(1, TimeUnit.MILLISECONDS)) == 0) {
+            drain.run();
+        }
+    }
+
+    @Override
+    public void resume() {
+        inFlight.unlockWrite(pauseStamp);
+    }
+
+    private void dedupLoop(final SpscRing<IntBatch> ring) {
+        try {
+            while (!aborted) {
+                final IntBatch codes = stagingBuffer.take();
+                if (codes == STOP) {
+                    publish(ring, STOP);
+                    return;
+                }
+                monitor.metrics().queueWait(System.nanoTime() - codes.stagedAt());
+                final long stamp = inFlight.readLock();
+                try {
+                    final long start = System.nanoTime();
+                    final int received = codes.size();
+                    codes.retain(firstSeen);
+                    monitor.metrics().deduplicated(received, System.nanoTime() - start);
+                    if (codes.isEmpty()) {
+                        pool.release(codes);
+                    } else {
+                        publish(ring, codes);
+                    }
+                } finally {
+                    inFlight.unlockRead(stamp);
+                }
+            }
+        } catch (InterruptedException e) {
+            if (!aborted) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void publish(final SpscRing<IntBatch> ring, final IntBatch codes) {
+        while (!ring.offer(codes)) {
+            if (aborted) {
+                return;
+            }
+            LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+        }
+        LockSupport.unpark(consumer);
+    }
+}
@@ -0,0 +1,189 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AppendLogTest {
+
+    private static final int BATCH = 64;
+
+    @Test
+    public void shouldDrainEveryQueuedCode_OnShutdown() throws IOException {
+        final Path log = Files.createTempFile("numbers", ".bin");
+        final Monitor monitor = new Monitor();
+        final AppendLog appendLog = newAppendLog(new FileLogStore(log, LogFormat.BINARY), monitor);
+        appendBatches(appendLog, 1000);
+
+        assertThat(appendLog.shutdown(TimeUnit.SECONDS.toMillis(15)), equalTo(0L));
+        assertThat(appendLog.writtenCodes(), equalTo(1000L * BATCH / 2));
+        assertThat(Files.size(log), equalTo(1000L * BATCH / 2 * LogFormat.BINARY.recordLength()));
+        monitor.shutdown();
+        Files.delete(log);
+    }
+
+    @Test
+    public void shouldReportCodesNotWritten_WhenShutdownTimesOut() throws IOException, InterruptedException {
+        final Path log = Files.createTempFile("numbers", ".bin");
+        final Monitor monitor = new Monitor();
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final StalledLogStore store = new StalledLogStore(new FileLogStore(log, LogFormat.BINARY), stalled);
+        final AppendLog appendLog = newAppendLog(store, monitor);
+        appendBatches(appendLog, 100);
+
+        final long lost = appendLog.shutdown(50);
+        assertTrue(lost > 0);
+        assertTrue(store.closed);
+        stalled.countDown();
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertThat(appendLog.pendingCodes(), equalTo(lost));
+        assertThat(Files.size(log), equalTo(0L));
+        monitor.shutdown();
+        Files.delete(log);
+    }
+
+    @Test
+    public void shouldStopWithinTimeout_WhenStagingBufferIsFullAndLogStalls() throws IOException, InterruptedException {
+        assertShutdownBounded(false);
+    }
+
+    @Test
+    public void shouldStopWithinTimeout_WhenStagingBufferIsFullAndLogStalls_InOrderedDedup()
+            throws IOException, InterruptedException {
+        assertShutdownBounded(true);
+    }
+
+    private void assertShutdownBounded(final boolean orderedDedup) throws IOException, InterruptedException {
+        final Path log = Files.createTempFile("numbers", ".bin");
+        final Monitor monitor = new Monitor();
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final StalledLogStore store = new StalledLogStore(new FileLogStore(log, LogFormat.BINARY), stalled);
+        final AppendLog appendLog = new AppendLog(store, monitor, 4 * BATCH, 2, orderedDedup, 4, BATCH, 1 << 12, 1,
+                Durability.NONE, 0, null, 0);
+        int code = fill(appendLog, 0);
+        TimeUnit.MILLISECONDS.sleep(100);
+        fill(appendLog, code);
+        assertThat(appendLog.stagingBuffer().size(), equalTo(appendLog.stagingBuffer().capacity()));
+        final Thread appender = new Thread(() -> {
+            try {
+                appendBatches(appendLog, 1);
+            } catch (IllegalStateException e) {
+                // refused once shutdown gave up on the pipeline
+            }
+        });
+        appender.start();
+
+        final long start = System.nanoTime();
+        final long lost = appendLog.shutdown(100);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        appender.join(TimeUnit.SECONDS.toMillis(1));
+        stalled.countDown();
+        assertTrue("shutdown took " + elapsed + " ms", elapsed < 1000);
+        assertTrue(lost > 0);
+        assertTrue(store.closed);
+        assertFalse(appender.isAlive());
+        monitor.shutdown();
+        Files.delete(log);
+    }
+
+    /**
+     * offers batches of unique codes until the staging buffer is full
+     * @return next code to offer
+     */
+    private static int fill(final AppendLog appendLog, final int firstCode) {
+        final IntBatch batch = new IntBatch(BATCH);
+        int code = firstCode;
+        do {
+            batch.clear();
+            while (!batch.isFull()) {
+                batch.add(code++);
+            }
+        } while (appendLog.offer(appendLog.copyOf(batch)));
+        return code;
+    }
+
+    private static AppendLog newAppendLog(final LogStore store, final Monitor monitor) {
+        return new AppendLog(store, monitor, 1 << 16, 2, false, 4, BATCH, 1 << 12, 1,
+                Durability.NONE, 0, null, 0);
+    }
+
+    /**
+     * appends batches where every code is sent twice
+     */
+    private static void appendBatches(final AppendLog appendLog, final int batches) {
+        final IntBatch batch = new IntBatch(BATCH);
+        for (int i = 0; i < batches * BATCH; i++) {
+            batch.add(i / 2);
+            if (batch.isFull()) {
+                appendLog.append(appendLog.copyOf(batch));
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * writes nothing until released
+     */
+    private static final class StalledLogStore implements LogStore {
+
+        private final LogStore store;
+        private final CountDownLatch released;
+        private volatile boolean closed;
+
+        private StalledLogStore(final LogStore store, final CountDownLatch released) {
+            this.store = store;
+            this.released = released;
+        }
+
+        @Override
+        public void write(final ByteBuffer records) throws IOException {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            store.write(records);
+        }
+
+        @Override
+        public long size() throws IOException {
+            return store.size();
+        }
+
+        @Override
+        public LogFormat format() {
+            return store.format();
+        }
+
+        @Override
+        public void force() throws IOException {
+            store.force();
+        }
+
+        @Override
+        public long recover(final Monitor monitor, final long fromOffset) {
+            return store.recover(monitor, fromOffset);
+        }
+
+        @Override
+        public long scan(final IntConsumer codes) throws IOException {
+            return store.scan(codes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BatchCoalescerTest {
+
+    private static final long MICROS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    @Test
+    public void shouldPassTrickleOnAtOnce() {
+        final BatchCoalescer coalescer = new BatchCoalescer(1024, 500);
+        long now = 1;
+        for (int i = 0; i < 100; i++) {
+            now += 10_000 * MICROS;
+            coalescer.arrived(1, now);
+            assertFalse(coalescer.hold(1, now));
+        }
+        assertThat(coalescer.target(), equalTo(1));
+    }
+
+    @Test
+    public void shouldHoldFlood_UntilTargetOrDeadline() {
+        final BatchCoalescer coalescer = new BatchCoalescer(1024, 500);
+        long now = 1;
+        for (int i = 0; i < 200; i++) {
+            now += MICROS;
+            coalescer.arrived(10, now);
+        }
+        assertThat(coalescer.target(), equalTo(1024));
+
+        assertTrue(coalescer.hold(10, now));
+        assertTrue(coalescer.isHolding());
+        assertThat(coalescer.deadline(), equalTo(now + 500 * MICROS));
+        assertTrue(coalescer.hold(500, now + 499 * MICROS));
+        assertFalse(coalescer.hold(500, now + 500 * MICROS));
+        assertFalse(coalescer.isHolding());
+
+        assertTrue(coalescer.hold(10, now + 600 * MICROS));
+        assertFalse(coalescer.hold(1024, now + 601 * MICROS));
+        coalescer.end();
+        assertFalse(coalescer.hold(10, now + 602 * MICROS));
+    }
+
+    @Test
+    public void shouldNeverHold_WhenDisabled() {
+        final BatchCoalescer coalescer = new BatchCoalescer(1024, 0);
+        coalescer.arrived(10, 1);
+        coalescer.arrived(10, 2);
+        assertFalse(coalescer.hold(10, 2));
+    }
+}
@@ -0,0 +1,162 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ClusterTest {
+
+    @Test
+    public void shouldSplitCodeSpace_InEqualRanges() {
+        assertThat(Cluster.owner(0, 1), equalTo(0));
+        assertThat(Cluster.owner(999_999_999, 1), equalTo(0));
+        assertThat(Cluster.owner(499_999_999, 2), equalTo(0));
+        assertThat(Cluster.owner(500_000_000, 2), equalTo(1));
+        assertThat(Cluster.owner(333_333_334, 3), equalTo(1));
+        assertThat(Cluster.owner(999_999_999, 3), equalTo(2));
+    }
+
+    @Test
+    public void shouldForwardCodes_ToTheirOwner() throws IOException, InterruptedException {
+        final List<InetSocketAddress> nodes = Arrays.asList(freeAddress(), freeAddress());
+        final Monitor first = new Monitor();
+        final Monitor second = new Monitor();
+        final Cluster firstNode = new Cluster(nodes, 0, 4, dedup(first), first);
+        final Cluster secondNode = new Cluster(nodes, 1, 4, dedup(second), second);
+        try {
+            final IntBatch batch = new IntBatch(8);
+            for (int code : new int[]{1, 600_000_000, 2, 700_000_000, 800_000_000, 900_000_000, 999_999_999, 600_000_000}) {
+                batch.add(code);
+            }
+            firstNode.route(batch);
+            assertThat(batch.size(), equalTo(2));
+            assertThat(batch.get(0), equalTo(1));
+            assertThat(batch.get(1), equalTo(2));
+            dedup(first).accept(batch);
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (second.uniqueTotal() < 5 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(second.uniqueTotal(), equalTo(5L));
+            assertThat(first.metrics().getForwardedCodes(), equalTo(6L));
+            assertThat(second.metrics().getPeerCodes(), equalTo(6L));
+            awaitUniqueTotal(firstNode, 7);
+            awaitUniqueTotal(secondNode, 7);
+            assertThat(firstNode.uniqueTotal(), equalTo(7L));
+            assertThat(secondNode.uniqueTotal(), equalTo(7L));
+            assertFalse(second.add(999_999_999));
+            assertTrue(second.add(500_000_000));
+        } finally {
+            firstNode.close();
+            secondNode.close();
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldCountCodesAsLost_WhenPeerIsGone_KeepingOwnCodes() throws IOException, InterruptedException {
+        final List<InetSocketAddress> nodes = Arrays.asList(freeAddress(), freeAddress());
+        final Monitor first = new Monitor();
+        final Monitor second = new Monitor();
+        final Cluster firstNode = new Cluster(nodes, 0, 4, dedup(first), first);
+        final Cluster secondNode = new Cluster(nodes, 1, 4, dedup(second), second);
+        try {
+            final IntBatch batch = new IntBatch(4);
+            route(firstNode, batch, 1, 600_000_000);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (second.uniqueTotal() < 1 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(second.uniqueTotal(), equalTo(1L));
+
+            secondNode.close();
+            for (int code = 2; first.metrics().getForwardLostCodes() == 0 && System.nanoTime() < deadline; code++) {
+                route(firstNode, batch, code, 600_000_000 + code);
+                assertThat(batch.size(), equalTo(1));
+                assertThat(batch.get(0), equalTo(code));
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertTrue(first.metrics().getForwardLostCodes() > 0);
+        } finally {
+            firstNode.close();
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldStopPeerReaders_WhenSinkBlocksPastTimeout() throws IOException, InterruptedException {
+        final List<InetSocketAddress> nodes = Arrays.asList(freeAddress());
+        final Monitor monitor = new Monitor();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final Cluster node = new Cluster(nodes, 0, 4, batch -> {
+            entered.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, monitor);
+        try (SocketChannel peer = SocketChannel.open(nodes.get(0))) {
+            final ByteBuffer frame = ByteBuffer.allocate(2 * Integer.BYTES);
+            frame.putInt(1).putInt(7).flip();
+            peer.write(frame);
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            final long start = System.nanoTime();
+            node.close(100);
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("close took " + elapsed + " ms", elapsed < 1000);
+        } finally {
+            released.countDown();
+            monitor.shutdown();
+        }
+    }
+
+    private static void route(final Cluster node, final IntBatch batch, final int own, final int forwarded) {
+        batch.clear();
+        batch.add(own);
+        batch.add(forwarded);
+        node.route(batch);
+    }
+
+    /**
+     * peer totals are refreshed by the links in the background
+     */
+    private static void awaitUniqueTotal(final Cluster node, final long total) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (node.uniqueTotal() < total && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static Consumer<IntBatch> dedup(final Monitor monitor) {
+        return batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                monitor.add(batch.get(i));
+            }
+        };
+    }
+
+    private static InetSocketAddress freeAddress() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CodeBitmapTest {
+
+    @Test
+    public void shouldAddOnce_AndCountDistinctCodes() {
+        final CodeBitmap bitmap = new CodeBitmap();
+        assertTrue(bitmap.add(0));
+        assertTrue(bitmap.add(999999999));
+        assertTrue(bitmap.add(123456789));
+        assertFalse(bitmap.add(123456789));
+        assertFalse(bitmap.add(0));
+        assertTrue(bitmap.contains(999999999));
+        assertFalse(bitmap.contains(123456788));
+        assertThat(bitmap.size(), equalTo(3L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectCodesOutsideNineDigits() {
+        new CodeBitmap().add(1000000000);
+    }
+
+    @Test
+    public void shouldAcceptEachCodeExactlyOnce_WhenThreadsContend() {
+        final CodeBitmap bitmap = new CodeBitmap();
+        final AtomicInteger accepted = new AtomicInteger();
+        CompletableFuture.allOf(IntStream.range(0, 4).mapToObj(thread -> CompletableFuture.runAsync(() ->
+                IntStream.range(0, 100000).forEach(code -> {
+                    if (bitmap.add(code * 7)) {
+                        accepted.incrementAndGet();
+                    }
+                }))).toArray(CompletableFuture[]::new)).join();
+        assertThat(accepted.get(), equalTo(100000));
+        assertThat(bitmap.size(), equalTo(100000L));
+    }
+
+    @Test
+    public void shouldVisitCodesOfRangeInAscendingOrder() {
+        final CodeBitmap bitmap = new CodeBitmap();
+        final int[] codes = {999999999, 5, 63, 64, 1 << 20, (1 << 20) - 1, 123456789, 0};
+        for (int code : codes) {
+            bitmap.add(code);
+        }
+        final List<Integer> visited = new ArrayList<>();
+        assertThat(bitmap.forEach(5, 1 << 20, visited::add), equalTo(5L));
+        assertThat(visited, equalTo(Arrays.asList(5, 63, 64, (1 << 20) - 1, 1 << 20)));
+        assertThat(bitmap.count(0, 999999999), equalTo(8L));
+        assertThat(bitmap.count(6, 63), equalTo(1L));
+        assertThat(bitmap.count(123456790, 999999998), equalTo(0L));
+    }
+}
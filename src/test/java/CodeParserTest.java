@@ -0,0 +1,105 @@
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CodeParserTest {
+
+    @Test
+    public void shouldParseCodes_WhenLinesAreSplitAcrossBuffers() {
+        final CodeParser parser = new CodeParser(16);
+        assertThat(parser.parse(bytes("123456789\n0000")), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.parse(bytes("00001\r\n\n987654321\n")), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.batch().size(), equalTo(3));
+        assertThat(parser.batch().get(0), equalTo(123456789));
+        assertThat(parser.batch().get(1), equalTo(1));
+        assertThat(parser.batch().get(2), equalTo(987654321));
+    }
+
+    @Test
+    public void shouldStopOnInvalidLines_KeepingCodesBeforeThem() {
+        assertInvalid("123456789\n12345678\n", 1);
+        assertInvalid("1234567890\n", 0);
+        assertInvalid("123DF6789\n", 0);
+        assertInvalid("12345\r6789\n", 0);
+        assertInvalid("terminated\n", 0);
+        assertInvalid("statistics\n", 0);
+    }
+
+    @Test
+    public void shouldDetectTermination() {
+        final CodeParser parser = new CodeParser(16);
+        assertThat(parser.parse(bytes("123456789\nterm")), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.parse(bytes("inate" + System.lineSeparator())), equalTo(CodeParser.Result.TERMINATE));
+        assertThat(parser.batch().size(), equalTo(1));
+    }
+
+    @Test
+    public void shouldDetectStats_AndGoOnParsing() {
+        final CodeParser parser = new CodeParser(16);
+        final ByteBuffer buffer = bytes("123456789\nstats\r\n987654321\n");
+        assertThat(parser.parse(buffer), equalTo(CodeParser.Result.STATS));
+        assertThat(parser.parse(buffer), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.batch().size(), equalTo(2));
+    }
+
+    @Test
+    public void shouldEndLinesWithCarriageReturnAlone() {
+        final CodeParser parser = new CodeParser(16);
+        assertThat(parser.parse(bytes("123456789\r987654321\r")), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.parse(bytes("\nstats\r")), equalTo(CodeParser.Result.STATS));
+        assertThat(parser.parse(bytes("\n000000001\n")), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.batch().size(), equalTo(3));
+        assertThat(parser.batch().get(1), equalTo(987654321));
+    }
+
+    @Test
+    public void shouldParseLastLineWithoutNewline_AtEndOfStream() {
+        final CodeParser parser = new CodeParser(16);
+        assertThat(parser.parse(bytes("123456789\n98765")), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.parse(bytes("4321")), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.end(), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.end(), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.batch().size(), equalTo(2));
+        assertThat(parser.batch().get(1), equalTo(987654321));
+
+        final CodeParser terminated = new CodeParser(16);
+        terminated.parse(bytes("terminate"));
+        assertThat(terminated.end(), equalTo(CodeParser.Result.TERMINATE));
+        final CodeParser truncated = new CodeParser(16);
+        truncated.parse(bytes("12345"));
+        assertThat(truncated.end(), equalTo(CodeParser.Result.INVALID));
+    }
+
+    @Test
+    public void shouldStopWhenBatchIsFull_AndResumeFromSameBuffer() {
+        final CodeParser parser = new CodeParser(2);
+        final ByteBuffer buffer = bytes("000000001\n000000002\n000000003\n");
+        assertThat(parser.parse(buffer), equalTo(CodeParser.Result.BATCH_FULL));
+        assertThat(parser.batch().size(), equalTo(2));
+        parser.batch().clear();
+        assertThat(parser.parse(buffer), equalTo(CodeParser.Result.DRAINED));
+        assertThat(parser.batch().get(0), equalTo(3));
+    }
+
+    @Test
+    public void shouldFormatCodeWithLeadingZeros() {
+        final byte[] record = new byte[CodeParser.RECORD_LENGTH];
+        CodeParser.format(7007009, record, 0);
+        assertThat(new String(record, StandardCharsets.US_ASCII), equalTo("007007009" + System.lineSeparator()));
+    }
+
+    private void assertInvalid(final String input, final int validCodes) {
+        final CodeParser parser = new CodeParser(16);
+        assertThat(parser.parse(bytes(input)), equalTo(CodeParser.Result.INVALID));
+        assertThat(parser.batch().size(), equalTo(validCodes));
+    }
+
+    private ByteBuffer bytes(final String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+}
@@ -0,0 +1,120 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures heap allocated by the server threads while codes sent by a loopback client go from socket reads
+ * through parsing, coalescing, the front filter, metrics, dedup and the log writer to numbers.log,
+ * once the path is warmed up it must not allocate per code
+ */
+public class IngestionAllocationTest {
+
+    private static final int BATCHES = 400;
+    private static final int CODES = BATCHES * Server.BATCH_SIZE;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Path directory;
+    private byte[] lines;
+
+    @Before
+    public void up() throws IOException {
+        directory = Files.createTempDirectory("conmuncher");
+        lines = new byte[2 * CODES * CodeParser.RECORD_LENGTH];
+        for (int code = 0; code < 2 * CODES; code++) {
+            CodeParser.format(code, lines, code * CodeParser.RECORD_LENGTH);
+        }
+    }
+
+    @After
+    public void teardown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldNotAllocatePerCode_OnceWarmedUp() throws IOException, InterruptedException {
+        assertNoAllocationPerCode(IngestionMode.BLOCKING);
+    }
+
+    @Test
+    public void shouldNotAllocatePerCode_OnceWarmedUp_InNioMode() throws IOException, InterruptedException {
+        assertNoAllocationPerCode(IngestionMode.NIO);
+    }
+
+    private void assertNoAllocationPerCode(final IngestionMode mode) throws IOException, InterruptedException {
+        final Server server = new Server(ServerConfig.builder().port(0).directory(directory).reportSeconds(0)
+                .ingestionMode(mode).prefilterSlots(1 << 16).coalesceMicros(500).build()).start();
+        final long allocated;
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            final OutputStream out = client.getOutputStream();
+            send(out, 0);
+            awaitWritten(server.monitor(), CODES);
+
+            final long[] measured = serverThreads();
+            final long before = allocatedBytes(measured);
+            send(out, CODES);
+            awaitWritten(server.monitor(), 2 * CODES);
+            allocated = allocatedBytes(measured) - before;
+        } finally {
+            server.stop();
+        }
+        assertTrue(allocated + " bytes allocated for " + CODES + " codes in " + mode + " mode", allocated < CODES);
+    }
+
+    /**
+     * writes the lines of CODES codes in chunks of a read buffer, so the server reads them as it reads a client
+     */
+    private void send(final OutputStream out, final int firstCode) throws IOException {
+        final int chunk = Server.READ_BUFFER_SIZE / CodeParser.RECORD_LENGTH * CodeParser.RECORD_LENGTH;
+        final int end = (firstCode + CODES) * CodeParser.RECORD_LENGTH;
+        for (int position = firstCode * CodeParser.RECORD_LENGTH; position < end; position += chunk) {
+            out.write(lines, position, Math.min(chunk, end - position));
+        }
+        out.flush();
+    }
+
+    private void awaitWritten(final Monitor monitor, final long codes) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (monitor.metrics().getWriterCodes() < codes && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    /**
+     * @return ids of the acceptor or selector thread, the connection threads and the persistence threads
+     */
+    private long[] serverThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("conmuncher-")
+                        || thread.getName().startsWith("numbers-")
+                        || thread.getName().startsWith("pool-"))
+                .mapToLong(Thread::getId)
+                .toArray();
+    }
+
+    private long allocatedBytes(final long[] measured) {
+        long allocated = 0;
+        for (long id : measured) {
+            allocated += threads.getThreadAllocatedBytes(id);
+        }
+        return allocated;
+    }
+}
@@ -0,0 +1,49 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldReportZeroWhenEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.mean());
+        assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    public void shouldKeepSmallValuesExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+        assertEquals(32, histogram.count());
+        assertEquals(15, histogram.percentile(50));
+        assertEquals(31, histogram.percentile(100));
+    }
+
+    @Test
+    public void shouldBoundRelativeErrorOfLargeValues() {
+        for (long value = 33; value < 1L << 40; value = value * 3 + 7) {
+            final long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(value + " in bucket up to " + highest, highest >= value);
+            assertTrue(value + " in bucket up to " + highest, highest - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void shouldFindPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000);
+        }
+        histogram.record(1_000_000);
+        assertEquals(100, histogram.count());
+        assertTrue(histogram.percentile(50) < 1_100);
+        assertTrue(histogram.percentile(99) < 1_100);
+        assertTrue(histogram.percentile(100) >= 1_000_000);
+        assertEquals((99 * 1_000 + 1_000_000) / 100, histogram.mean());
+    }
+}
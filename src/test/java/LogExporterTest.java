@@ -0,0 +1,50 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LogExporterTest {
+
+    @Test
+    public void shouldExportBinaryRecordsAsText_StoppingAtZeroFilledTail() throws IOException {
+        final String newline = System.lineSeparator();
+        final Path first = binaryLog(ByteBuffer.allocate(8), 0, 999999999);
+        final Path second = binaryLog(ByteBuffer.allocate(16), 123456789);
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+        assertThat(LogExporter.export(Arrays.asList(first, second), Channels.newChannel(text)), equalTo(3L));
+        assertThat(text.toString(), equalTo("000000000" + newline + "999999999" + newline + "123456789" + newline));
+        Files.delete(first);
+        Files.delete(second);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFail_WhenRecordIsCorrupt() throws IOException {
+        final ByteBuffer records = ByteBuffer.allocate(8);
+        records.putInt(4, 1_000_000_000);
+        final Path log = binaryLog(records, 1);
+        try {
+            LogExporter.export(Collections.singletonList(log), Channels.newChannel(new ByteArrayOutputStream()));
+        } finally {
+            Files.delete(log);
+        }
+    }
+
+    private static Path binaryLog(final ByteBuffer records, final int... codes) throws IOException {
+        for (int code : codes) {
+            LogFormat.BINARY.write(code, records);
+        }
+        final Path log = Files.createTempFile("numbers", ".bin");
+        Files.write(log, records.array());
+        return log;
+    }
+}
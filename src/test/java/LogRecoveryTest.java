@@ -0,0 +1,43 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LogRecoveryTest {
+
+    @Test
+    public void shouldRestoreCodes_AndTruncatePartialLastRecord() throws IOException {
+        final String newline = System.lineSeparator();
+        final Path log = Files.createTempFile("numbers", ".log");
+        Files.write(log, ("123456789" + newline + "000000001" + newline + "98765").getBytes(StandardCharsets.US_ASCII));
+        final Monitor monitor = new Monitor();
+
+        assertThat(LogRecovery.recover(log, monitor, 0, LogFormat.TEXT), equalTo(2L));
+        assertThat(monitor.uniqueTotal(), equalTo(2L));
+        assertFalse(monitor.add(123456789));
+        assertFalse(monitor.add(1));
+        assertTrue(monitor.add(987654321));
+        assertThat(Files.size(log), equalTo(2L * CodeParser.RECORD_LENGTH));
+        monitor.shutdown();
+        Files.delete(log);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFail_WhenRecordIsCorrupt() throws IOException {
+        final Path log = Files.createTempFile("numbers", ".log");
+        Files.write(log, ("12345X789" + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII));
+        try {
+            LogRecovery.recover(log, new Monitor(), 0, LogFormat.TEXT);
+        } finally {
+            Files.delete(log);
+        }
+    }
+
+}
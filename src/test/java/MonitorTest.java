@@ -33,6 +33,35 @@ public class MonitorTest {
         assertReport(monitor, 4, 2, 9);
     }
 
+    @Test
+    public void shouldReportStats_WithoutResettingCounters() {
+        final Monitor monitor = new Monitor();
+        assertTrue(monitor.add(1));
+        assertFalse(monitor.add(1));
+        assertTrue(monitor.add(2));
+        final String stats = "Unique total: 2, 2 unique numbers and 1 duplicates since last report, 0 codes staged"
+                + System.lineSeparator();
+        assertThat(monitor.stats(), equalTo(stats));
+        assertThat(monitor.stats(), equalTo(stats));
+        monitor.shutdown();
+    }
+
+    @Test
+    public void shouldReportClusterTotal_WhenWatchingCluster() throws IOException, InterruptedException {
+        final Monitor monitor = new Monitor();
+        monitor.watchCluster(() -> 5);
+        assertTrue(monitor.add(1));
+        assertThat(monitor.stats(), equalTo("Unique total: 1, 1 unique numbers and 0 duplicates since last report, 0 codes staged"
+                + System.lineSeparator() + "Cluster unique total: 5" + System.lineSeparator()));
+        try (final ByteArrayOutputStream outContent = new ByteArrayOutputStream()) {
+            System.setOut(new PrintStream(outContent));
+            monitor.printReport();
+            assertThat(outContent.toString(), equalTo("Received 1 unique numbers, 0 duplicates. Unique total: 1"
+                    + System.lineSeparator() + "Cluster unique total: 5" + System.lineSeparator()));
+        }
+        monitor.shutdown();
+    }
+
     private int randomCode() {
         return Math.abs(new Random().nextInt(1000000000));
     }
@@ -0,0 +1,51 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OrderedDedupStageTest {
+
+    private static final int BATCH = 64;
+
+    @Test
+    public void shouldWriteFirstOccurrences_InStagingOrder() throws IOException {
+        final Path directory = Files.createTempDirectory("ordered-dedup");
+        final Path log = directory.resolve(Repository.NUMBERS_BIN);
+        final Monitor monitor = new Monitor();
+        final AppendLog appendLog = new AppendLog(new FileLogStore(log, LogFormat.BINARY), monitor,
+                16 * BATCH, 4, true, 4, BATCH, 1 << 12, 1, Durability.NONE, 0,
+                new SnapshotStore(directory.resolve(SnapshotStore.NUMBERS_SNAPSHOT)), 1);
+
+        final Random random = new Random(42);
+        final CodeBitmap seen = new CodeBitmap();
+        final IntBatch expected = new IntBatch(200 * BATCH);
+        final IntBatch batch = new IntBatch(BATCH);
+        for (int i = 0; i < 200 * BATCH; i++) {
+            final int code = random.nextInt(50_000) << 12;
+            batch.add(code);
+            if (seen.add(code)) {
+                expected.add(code);
+            }
+            if (batch.isFull()) {
+                appendLog.append(appendLog.copyOf(batch));
+                batch.clear();
+            }
+        }
+        appendLog.shutdown(TimeUnit.SECONDS.toMillis(15));
+
+        final ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(log));
+        assertThat(records.limit(), equalTo(expected.size() * LogFormat.BINARY.recordLength()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(LogFormat.BINARY.read(records, i * LogFormat.BINARY.recordLength()), equalTo(expected.get(i)));
+        }
+        assertThat(monitor.uniqueTotal(), equalTo((long) expected.size()));
+        monitor.shutdown();
+    }
+}
@@ -0,0 +1,42 @@
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RecentCodesTest {
+
+    @Test
+    public void shouldCatchRepeatedCodes_UntilEvicted() {
+        final RecentCodes recentCodes = new RecentCodes(1000);
+        assertThat(recentCodes.capacity(), equalTo(1024));
+        assertTrue(recentCodes.test(0));
+        assertFalse(recentCodes.test(0));
+        assertTrue(recentCodes.test(123456789));
+        assertFalse(recentCodes.test(123456789));
+
+        for (int code = 1; code <= 1_000_000; code++) {
+            recentCodes.test(code);
+        }
+        assertTrue(recentCodes.test(0));
+    }
+
+    @Test
+    public void shouldCountDroppedCodesAsDuplicates_KeepingUniqueOnes() {
+        final Monitor monitor = new Monitor();
+        final RecentCodes recentCodes = new RecentCodes(1024);
+        final IntBatch batch = new IntBatch(8);
+        for (int code : new int[]{5, 6, 5, 5, 7, 6}) {
+            batch.add(code);
+        }
+        recentCodes.filter(batch, monitor);
+        assertThat(batch.size(), equalTo(3));
+        assertThat(batch.get(2), equalTo(7));
+        assertThat(monitor.metrics().getPrefilterHits(), equalTo(3L));
+        assertThat(monitor.metrics().getPrefilterHitPercent(), equalTo(50L));
+        assertThat(monitor.stats(), equalTo("Unique total: 0, 0 unique numbers and 3 duplicates since last report, 0 codes staged"
+                + System.lineSeparator()));
+        monitor.shutdown();
+    }
+}
@@ -5,9 +5,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -24,16 +26,20 @@ public class RepositoryTest {
         if (file.exists()) {
             file.delete();
         }
-        new Repository(null);
+        final Monitor monitor = new Monitor();
+        new Repository(monitor).shutdown();
+        monitor.shutdown();
         assertTrue(new File(Repository.NUMBERS_LOG).exists());
     }
 
     @Test
-    public void shouldSave() throws InterruptedException, IOException {
-        Repository repository = new Repository(new Monitor());
+    public void shouldSave() throws IOException {
+        Monitor monitor = new Monitor();
+        Repository repository = new Repository(monitor);
         repository.save(Arrays.asList("123456789", "000000001"));
         repository.save(Arrays.asList("987654321"));
-        TimeUnit.SECONDS.sleep(1);
+        repository.shutdown();
+        monitor.shutdown();
         try (BufferedReader reader = new BufferedReader(new FileReader(Repository.NUMBERS_LOG))) {
             List<String> lines = reader.lines().collect(toList());
             assertThat(lines.size(), equalTo(3));
@@ -43,12 +49,42 @@ public class RepositoryTest {
         }
     }
 
+    @Test
+    public void shouldSnapshotCodes_WithoutResume_SoTheNextResumeSkipsTheLog() throws IOException {
+        final Path directory = Files.createTempDirectory("conmuncher");
+        final ServerConfig config = ServerConfig.builder().directory(directory).build();
+        final Monitor monitor = new Monitor(0);
+        final Repository repository = new Repository(monitor, config);
+        repository.save(Arrays.asList("123456789", "000000001"));
+        repository.shutdown();
+        monitor.shutdown();
+        final Path log = directory.resolve(Repository.numbersLog(config.logFormat()));
+        final Monitor snapshot = new Monitor(0);
+        assertThat(new SnapshotStore(directory.resolve(SnapshotStore.NUMBERS_SNAPSHOT)).load(snapshot, Files.size(log)),
+                equalTo(Files.size(log)));
+        assertThat(snapshot.uniqueTotal(), equalTo(2L));
+        snapshot.shutdown();
+
+        final Monitor resumed = new Monitor(0);
+        final Repository restarted = new Repository(resumed, ServerConfig.builder().directory(directory).resume(true).build());
+        assertTrue(resumed.contains(123456789));
+        assertTrue(resumed.contains(1));
+        restarted.shutdown();
+        resumed.shutdown();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
     @Test
     public void shouldValidateCode() {
-        assertFalse(new Repository(null).isRequestInvalid(Arrays.asList("123456789" , "000000001" )));
-        assertFalse(new Repository(null).isRequestInvalid(Arrays.asList("123456789")));
-        assertTrue(new Repository(null).isRequestInvalid(Arrays.asList("12345678")));
-        assertTrue(new Repository(null).isRequestInvalid(Arrays.asList("123SS678")));
+        assertFalse(Repository.isRequestInvalid(Arrays.asList("123456789" , "000000001" )));
+        assertFalse(Repository.isRequestInvalid(Arrays.asList("123456789")));
+        assertTrue(Repository.isRequestInvalid(Arrays.asList("12345678")));
+        assertTrue(Repository.isRequestInvalid(Arrays.asList("123SS678")));
     }
 
 }
\ No newline at end of file
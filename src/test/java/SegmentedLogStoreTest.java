@@ -0,0 +1,131 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SegmentedLogStoreTest {
+
+    private static final int SEGMENT_BYTES = 4 * CodeParser.RECORD_LENGTH;
+    private static final LogFormat FORMAT = LogFormat.TEXT;
+
+    @Test
+    public void shouldRollOverSegments_AndRecoverThemAfterReopening() throws IOException {
+        final Path directory = Files.createTempDirectory("segments");
+        final SegmentedLogStore store = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        store.write(records(0, 10));
+        store.close();
+
+        assertTrue(Files.exists(store.segmentPath(2)));
+        assertThat(Files.size(directory.resolve(SegmentedLogStore.NUMBERS_INDEX)), equalTo(2L * 16));
+
+        final SegmentedLogStore reopened = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        assertThat(reopened.size(), equalTo(10L * CodeParser.RECORD_LENGTH));
+        final Monitor monitor = new Monitor();
+        assertThat(reopened.recover(monitor, 3L * CodeParser.RECORD_LENGTH), equalTo(7L));
+        assertFalse(monitor.add(3));
+        assertFalse(monitor.add(9));
+        assertTrue(monitor.add(2));
+
+        reopened.write(records(10, 1));
+        assertThat(reopened.size(), equalTo(11L * CodeParser.RECORD_LENGTH));
+        reopened.close();
+        monitor.shutdown();
+        SegmentedLogStore.cleanUp(directory);
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldCutZeroFilledTail_OfActiveSegment_OnClose() throws IOException {
+        final Path directory = Files.createTempDirectory("segments");
+        final SegmentedLogStore store = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        store.write(records(0, 6));
+        store.close();
+
+        assertThat(Files.size(store.segmentPath(1)), equalTo(2L * CodeParser.RECORD_LENGTH));
+        assertThat(Files.readAllLines(store.segmentPath(1)).size(), equalTo(2));
+
+        final SegmentedLogStore reopened = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        reopened.write(records(6, 3));
+        assertThat(reopened.size(), equalTo(9L * CodeParser.RECORD_LENGTH));
+        reopened.close();
+        assertThat(Files.size(reopened.segmentPath(2)), equalTo((long) CodeParser.RECORD_LENGTH));
+        SegmentedLogStore.cleanUp(directory);
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldDropPartialRecord_OfActiveSegment() throws IOException {
+        final Path directory = Files.createTempDirectory("segments");
+        final SegmentedLogStore store = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        store.write(records(0, 1));
+        store.close();
+        try (FileChannel segment = FileChannel.open(store.segmentPath(0), StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.wrap("12345".getBytes()), CodeParser.RECORD_LENGTH);
+        }
+
+        final SegmentedLogStore reopened = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        assertThat(reopened.size(), equalTo((long) CodeParser.RECORD_LENGTH));
+        final Monitor monitor = new Monitor();
+        assertThat(reopened.recover(monitor, 0), equalTo(1L));
+        assertThat(monitor.uniqueTotal(), equalTo(1L));
+        reopened.close();
+        monitor.shutdown();
+        SegmentedLogStore.cleanUp(directory);
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldScanWrittenCodesInLogOrder_SkippingArchivedSegments() throws IOException {
+        final Path directory = Files.createTempDirectory("segments");
+        final SegmentedLogStore store = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        store.write(records(0, 10));
+        final List<Integer> scanned = new ArrayList<>();
+        assertThat(store.scan(scanned::add), equalTo(10L));
+        assertThat(scanned, equalTo(IntStream.range(0, 10).boxed().collect(Collectors.toList())));
+
+        Files.delete(store.segmentPath(0));
+        scanned.clear();
+        assertThat(store.scan(scanned::add), equalTo(6L));
+        assertThat(scanned, equalTo(IntStream.range(4, 10).boxed().collect(Collectors.toList())));
+        store.close();
+        SegmentedLogStore.cleanUp(directory);
+        Files.delete(directory);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFail_WhenSegmentNotCoveredBySnapshotIsMissing() throws IOException {
+        final Path directory = Files.createTempDirectory("segments");
+        final SegmentedLogStore store = new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT);
+        store.write(records(0, 6));
+        store.close();
+        Files.delete(store.segmentPath(0));
+        try {
+            new SegmentedLogStore(directory, SEGMENT_BYTES, FORMAT).recover(new Monitor(), 0);
+        } finally {
+            SegmentedLogStore.cleanUp(directory);
+            Files.delete(directory);
+        }
+    }
+
+    private static ByteBuffer records(final int first, final int count) {
+        final ByteBuffer records = ByteBuffer.allocate(count * CodeParser.RECORD_LENGTH);
+        for (int code = first; code < first + count; code++) {
+            CodeParser.format(code, records);
+        }
+        records.flip();
+        return records;
+    }
+}
@@ -0,0 +1,42 @@
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ServerConfigTest {
+
+    @Test
+    public void shouldDefaultToSystemPropertySettings_AndKeepOverrides() {
+        final ServerConfig defaults = ServerConfig.fromSystemProperties();
+        assertThat(defaults.port(), equalTo(Server.PORT));
+        assertThat(defaults.maxConnections(), equalTo(Server.MAX_CONNECTIONS));
+        assertThat(defaults.batchSize(), equalTo(Server.BATCH_SIZE));
+        assertThat(defaults.stagingCodes(), equalTo(Repository.STAGING_CAPACITY));
+        assertThat(defaults.logFormat(), equalTo(Repository.LOG_FORMAT));
+        assertThat(defaults.clusterNodes().isEmpty(), equalTo(Cluster.NODES.trim().isEmpty()));
+
+        final ServerConfig config = ServerConfig.builder().port(0).maxConnections(50).dedupThreads(4)
+                .directory(Paths.get("target")).logFormat(LogFormat.BINARY).reportSeconds(0).build();
+        assertThat(config.port(), equalTo(0));
+        assertThat(config.maxConnections(), equalTo(50));
+        assertThat(config.dedupThreads(), equalTo(4));
+        assertThat(config.directory(), equalTo(Paths.get("target")));
+        assertThat(config.logFormat(), equalTo(LogFormat.BINARY));
+        assertThat(config.reportSeconds(), equalTo(0L));
+        assertThat(config.batchSize(), equalTo(defaults.batchSize()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectStagingBufferSmallerThanABatch() {
+        ServerConfig.builder().batchSize(1024).stagingCodes(512).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectClusterNodeOutsideNodeList() {
+        ServerConfig.builder().cluster(Collections.singletonList(new InetSocketAddress("localhost", 5000)), 1).build();
+    }
+}
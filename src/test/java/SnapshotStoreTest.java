@@ -0,0 +1,37 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SnapshotStoreTest {
+
+    @Test
+    public void shouldRestoreCodesAndLogOffset_FromSnapshot() throws IOException {
+        final Path path = Files.createTempFile("numbers", ".snapshot");
+        final Monitor monitor = new Monitor();
+        monitor.add(0);
+        monitor.add(123456789);
+        monitor.add(999999999);
+        final SnapshotStore store = new SnapshotStore(path);
+        assertTrue(store.capture(monitor, 30));
+        store.shutdown();
+
+        final Monitor restored = new Monitor();
+        assertThat(new SnapshotStore(path).load(restored, 30), equalTo(30L));
+        assertThat(restored.uniqueTotal(), equalTo(3L));
+        assertFalse(restored.add(123456789));
+        assertTrue(restored.add(123456788));
+
+        assertThat(new SnapshotStore(path).load(new Monitor(), 20), equalTo(0L));
+        monitor.shutdown();
+        restored.shutdown();
+        Files.delete(path);
+    }
+
+}
@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SpscRingTest {
+
+    @Test
+    public void shouldRejectOffers_WhenFull() {
+        final SpscRing<Integer> ring = new SpscRing<>(3);
+        assertThat(ring.capacity(), equalTo(4));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertThat(ring.poll(), equalTo(0));
+        assertTrue(ring.offer(4));
+        assertThat(ring.size(), equalTo(4));
+    }
+
+    @Test
+    public void shouldHandOverItemsInOrder_BetweenTwoThreads() throws InterruptedException {
+        final SpscRing<Integer> ring = new SpscRing<>(16);
+        final int items = 1_000_000;
+        final Thread producer = new Thread(() -> {
+            for (int i = 0; i < items; i++) {
+                while (!ring.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        for (int expected = 0; expected < items; expected++) {
+            Integer item;
+            while ((item = ring.poll()) == null) {
+                Thread.yield();
+            }
+            assertThat(item, equalTo(expected));
+        }
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertNull(ring.poll());
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StagingBufferTest {
+
+    @Test
+    public void shouldRefuseCodes_WhenFull_UntilWriterTakesThem() throws InterruptedException {
+        final StagingBuffer buffer = new StagingBuffer(4);
+        assertTrue(buffer.offer(batch(1, 2, 3)));
+        assertFalse(buffer.offer(batch(4, 5)));
+        assertThat(buffer.size(), equalTo(3));
+
+        assertThat(buffer.poll(1, TimeUnit.SECONDS).size(), equalTo(3));
+        assertThat(buffer.size(), equalTo(0));
+        assertTrue(buffer.offer(batch(4, 5)));
+        assertThat(buffer.size(), equalTo(2));
+    }
+
+    @Test
+    public void shouldAcceptBatchLargerThanCapacity_WhenEmpty() throws InterruptedException {
+        final StagingBuffer buffer = new StagingBuffer(2);
+        buffer.put(batch(1, 2, 3));
+        assertThat(buffer.size(), equalTo(2));
+        assertThat(buffer.take().size(), equalTo(3));
+    }
+
+    @Test
+    public void shouldGiveUp_WhenNoRoomWithinTimeout() throws InterruptedException {
+        final StagingBuffer buffer = new StagingBuffer(2);
+        buffer.put(batch(1, 2));
+        assertFalse(buffer.offer(batch(3), 10, TimeUnit.MILLISECONDS));
+
+        buffer.take();
+        assertTrue(buffer.offer(batch(3), 10, TimeUnit.MILLISECONDS));
+        assertThat(buffer.size(), equalTo(1));
+    }
+
+    @Test
+    public void shouldFailWaitingProducers_WhenClosed() throws InterruptedException {
+        final StagingBuffer buffer = new StagingBuffer(2);
+        buffer.put(batch(1, 2));
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Thread producer = new Thread(() -> {
+            try {
+                buffer.put(batch(3));
+            } catch (IllegalStateException | InterruptedException e) {
+                failure.set(e);
+            }
+        });
+        producer.start();
+        TimeUnit.MILLISECONDS.sleep(50);
+        buffer.close();
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertFalse(producer.isAlive());
+        assertTrue(failure.get() instanceof IllegalStateException);
+        assertFalse(buffer.offer(batch(4)));
+    }
+
+    private IntBatch batch(final int... codes) {
+        final IntBatch batch = new IntBatch(codes.length);
+        for (int code : codes) {
+            batch.add(code);
+        }
+        return batch;
+    }
+
+}
@@ -0,0 +1,33 @@
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StripedCounterTest {
+
+    @Test
+    public void shouldCountEachIncrementOnce_WhenResetWhileThreadsIncrement() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        final AtomicBoolean incrementing = new AtomicBoolean(true);
+        final AtomicLong reported = new AtomicLong();
+        final Thread reporter = new Thread(() -> {
+            while (incrementing.get()) {
+                reported.addAndGet(counter.sumThenReset());
+            }
+        });
+        reporter.start();
+        CompletableFuture.allOf(IntStream.range(0, 4).mapToObj(thread -> CompletableFuture.runAsync(() ->
+                IntStream.range(0, 250000).forEach(i -> counter.increment()))).toArray(CompletableFuture[]::new)).join();
+        incrementing.set(false);
+        reporter.join();
+
+        assertThat(reported.get() + counter.sumThenReset(), equalTo(1000000L));
+        assertThat(counter.sum(), equalTo(0L));
+    }
+
+}